@@ -0,0 +1,56 @@
+package com.github.audunhalland.parceq;
+
+import io.vavr.control.Try;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+  @Param
+  QueryCorpus corpus;
+
+  private String[] queries;
+  private int index;
+  private Lexer lexer;
+
+  @Setup
+  public void setUp() {
+    queries = corpus.getQueries();
+    lexer = new Lexer();
+  }
+
+  private String nextQuery() {
+    final String query = queries[index];
+    index = (index + 1) % queries.length;
+    return query;
+  }
+
+  @Benchmark
+  public void tokenStream(Blackhole blackhole) {
+    lexer.tokenStream(new StringReader(nextQuery()))
+        .map(Try::get)
+        .forEach(blackhole::consume);
+  }
+
+  @Benchmark
+  public TokenBuffer tokenize() {
+    return lexer.tokenize(nextQuery());
+  }
+}
@@ -0,0 +1,97 @@
+package com.github.audunhalland.parceq;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParceQBenchmark {
+  @Param
+  QueryCorpus corpus;
+
+  @Param({"3"})
+  int shingleOrder;
+
+  private String[] queries;
+  private ParceQ[] parsed;
+  private ByteBuffer[] encoded;
+  private ByteBuffer[] encodedShingles;
+  private final ParceQ.Context context = new ParceQ.Context();
+  private int index;
+
+  @Setup
+  public void setUp() {
+    queries = corpus.getQueries();
+    parsed = new ParceQ[queries.length];
+    encoded = new ByteBuffer[queries.length];
+    encodedShingles = new ByteBuffer[queries.length];
+    for (int i = 0; i < queries.length; i++) {
+      parsed[i] = ParceQ.parse(new StringReader(queries[i])).get();
+      encoded[i] = ExpressionCodec.encode(parsed[i]);
+      encodedShingles[i] = ExpressionCodec.encode(parsed[i].termShingles(shingleOrder, " "));
+    }
+  }
+
+  private int nextIndex() {
+    final int current = index;
+    index = (index + 1) % queries.length;
+    return current;
+  }
+
+  @Benchmark
+  public ParceQ parse() {
+    return ParceQ.parse(new StringReader(queries[nextIndex()])).get();
+  }
+
+  @Benchmark
+  public ParceQ parseString() {
+    return ParceQ.parse(queries[nextIndex()]).get();
+  }
+
+  @Benchmark
+  public ParceQ parseContext() {
+    return context.parse(queries[nextIndex()]).get();
+  }
+
+  // Shingles a fork, like a parse cache hit, so the allocator does not grow across invocations
+  @Benchmark
+  public ParceQ termShingles() {
+    final ParceQ query = parsed[nextIndex()];
+    return new ParceQ(query.getTermAllocator().fork(), query.getExpression())
+        .termShingles(shingleOrder, " ");
+  }
+
+  @Benchmark
+  public ParceQ parseAndShingle() {
+    return ParceQ.parse(new StringReader(queries[nextIndex()])).get()
+        .termShingles(shingleOrder, " ");
+  }
+
+  // Compare with parseContext
+  @Benchmark
+  public ParceQ decode() {
+    return ExpressionCodec.decode(encoded[nextIndex()].duplicate()).get();
+  }
+
+  // Compare with parseAndShingle
+  @Benchmark
+  public ParceQ decodeShingled() {
+    return ExpressionCodec.decode(encodedShingles[nextIndex()].duplicate()).get();
+  }
+}
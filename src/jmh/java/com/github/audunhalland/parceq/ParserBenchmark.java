@@ -0,0 +1,70 @@
+package com.github.audunhalland.parceq;
+
+import io.vavr.collection.Stream;
+import io.vavr.control.Try;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+  @Param
+  QueryCorpus corpus;
+
+  // Token streams are lexed and forced up front so only the parser is measured
+  private Stream<Token>[] tokenStreams;
+  private TokenBuffer[] tokenBuffers;
+  private final TokenBuffer.Cursor cursor = new TokenBuffer.Cursor();
+  private int index;
+
+  @Setup
+  public void setUp() {
+    final Lexer lexer = new Lexer();
+    final String[] queries = corpus.getQueries();
+    tokenStreams = newTokenStreams(queries.length);
+    tokenBuffers = new TokenBuffer[queries.length];
+    for (int i = 0; i < queries.length; i++) {
+      tokenBuffers[i] = lexer.tokenize(queries[i]);
+      tokenStreams[i] = Stream.ofAll(
+          lexer.tokenStream(new StringReader(queries[i]))
+              .map(Try::get)
+              .toList());
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Stream<Token>[] newTokenStreams(int length) {
+    return (Stream<Token>[]) new Stream[length];
+  }
+
+  private int nextIndex() {
+    final int current = index;
+    index = (index + 1) % tokenStreams.length;
+    return current;
+  }
+
+  @Benchmark
+  public Expression parse() {
+    return new Parser(new TermAllocator()).parse(tokenStreams[nextIndex()]);
+  }
+
+  @Benchmark
+  public Expression parseCursor() {
+    return new Parser(new TermAllocator()).parse(cursor.reset(tokenBuffers[nextIndex()]));
+  }
+}
@@ -0,0 +1,62 @@
+package com.github.audunhalland.parceq;
+
+public enum QueryCorpus {
+  SHORT(
+      "shoes",
+      "red shoes",
+      "running shoes men",
+      "iphone case",
+      "\"new york\"",
+      "java -coffee",
+      "+linux kernel",
+      "cheap flights oslo",
+      "vavr",
+      "parser combinator"),
+
+  LONG(
+      "how do I configure the garbage collector for a low latency java service running in a container with limited memory",
+      "error: cannot find symbol symbol: method getValue() location: variable term of type Term when compiling with gradle",
+      "best practices for writing a search query parser that handles quoted phrases boolean operators and escaping",
+      "\"exception in thread main\" java.lang.StackOverflowError at com.example.Parser.parse -kotlin +jvm stack trace",
+      "summer dress women cotton short sleeve floral print beach casual loose fit size medium blue OR green -polyester",
+      "Lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod tempor incididunt ut labore et dolore magna aliqua"),
+
+  PARENTHESISED(
+      "(a b) (c d)",
+      "((foo))",
+      "(red OR blue) AND (shoes OR boots)",
+      "(((a AND b) OR (c AND d)) AND ((e OR f) AND (g OR h)))",
+      "java (jvm OR graal) -coffee (tea OR cocoa)",
+      "((((((((deeply))))))) nested) (groups (of (words)))"),
+
+  ESCAPED(
+      "\\-foo \\+bar \\(baz\\)",
+      "\"foo \\\" bar\" \\\"baz",
+      "c\\+\\+ \\(programming\\) \\-language",
+      "path\\\\to\\\\file \"quoted \\\\ backslash\"",
+      "\\\"unbalanced \\(paren and \\-minus\\-signs\\-everywhere",
+      "a\\ b\\ c \\&&\\ \\|| \\AND"),
+
+  // Machine-generated queries of about 100 KB
+  GENERATED(generated(1, 100_000), generated(2, 100_000));
+
+  private final String[] queries;
+
+  QueryCorpus(String ... queries) {
+    this.queries = queries;
+  }
+
+  public String[] getQueries() {
+    return queries;
+  }
+
+  private static String generated(int seed, int length) {
+    final String[] parts = {"term", "-excluded", "+required", "\"a phrase\"", "OR", "AND",
+        "(group", "of)", "escaped\\-word", "field:value"};
+    final StringBuilder query = new StringBuilder(length + 32);
+    for (int i = seed; query.length() < length; i++) {
+      query.append(parts[(i * 7) % parts.length]).append(i % 100).append(' ');
+    }
+    return query.toString();
+  }
+}
@@ -0,0 +1,73 @@
+package com.github.audunhalland.parceq.exec;
+
+import com.github.audunhalland.parceq.Expression;
+import com.github.audunhalland.parceq.ParceQ;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutorBenchmark {
+  // Terms with document frequencies from very common to rare
+  private static final String[] TERMS = {"common", "frequent", "medium", "sparse", "rare"};
+  private static final double[] FREQUENCIES = {0.5, 0.2, 0.05, 0.01, 0.001};
+
+  @Param({"plain", "compressed"})
+  String format;
+
+  @Param({"common AND frequent", "common AND rare", "sparse medium", "+frequent -medium common"})
+  String query;
+
+  @Param({"false", "true"})
+  boolean planned;
+
+  private ExpressionExecutor executor;
+  private Expression expression;
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(1);
+    final InvertedIndex.Builder builder = new InvertedIndex.Builder();
+    final String[] document = new String[TERMS.length];
+    for (int doc = 0; doc < 1_000_000; doc++) {
+      int length = 0;
+      for (int i = 0; i < TERMS.length; i++) {
+        if (random.nextDouble() < FREQUENCIES[i]) {
+          document[length++] = TERMS[i];
+        }
+      }
+      builder.addDocument(java.util.Arrays.copyOf(document, length));
+    }
+    final Index index = format.equals("compressed") ? builder.buildCompressed() : builder.build();
+    executor = new ExpressionExecutor(index);
+    expression = ParceQ.parse(query).get().getExpression();
+    if (planned) {
+      expression = new QueryPlanner(index).plan(expression).getExpression();
+    }
+  }
+
+  @Benchmark
+  public int count() {
+    final DocIdIterator iterator = executor.iterator(expression);
+    int count = 0;
+    while (iterator.nextDoc() != DocIdIterator.NO_MORE_DOCS) {
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,192 @@
+package com.github.audunhalland.parceq;
+
+import io.vavr.collection.Iterator;
+import io.vavr.control.Try;
+import java.io.BufferedReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Parses many queries in parallel, for replaying query logs and other batch jobs.
+ *
+ * <p>Queries are parsed in batches on an executor, and results are returned lazily in input
+ * order. Only a bounded number of batches is in flight, so the input can be much larger than
+ * memory. A query that fails to parse gives a failed result for that query only, also when it
+ * fails with a stack overflow or a linkage error, which are wrapped in an
+ * {@link ExecutionException}. With a {@link ParseCache}, repeated queries are parsed once.
+ */
+public class BulkParser {
+  private final Executor executor;
+  private final ParseCache cache;
+  private final int batchSize;
+  private final int maxPendingBatches;
+
+  private BulkParser(Builder builder) {
+    this.executor = builder.executor;
+    this.cache = builder.cache;
+    this.batchSize = builder.batchSize;
+    this.maxPendingBatches = builder.maxPendingBatches;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * One result per query, in the order of the queries. The queries are read as results are
+   * consumed, a bounded number of batches ahead.
+   */
+  public Iterator<Try<ParceQ>> parse(java.util.Iterator<String> queries) {
+    return Iterator.ofAll(new OrderedResults(queries));
+  }
+
+  public Iterator<Try<ParceQ>> parse(Iterable<String> queries) {
+    return parse(queries.iterator());
+  }
+
+  /**
+   * Parses each line of a UTF-8 file, and passes the results to the consumer in line order.
+   *
+   * @return the number of lines, or the failure to read the file
+   */
+  public Try<Long> parseFile(Path file, Consumer<? super Try<ParceQ>> results) {
+    return Try.withResources(() -> Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        .of((BufferedReader reader) -> {
+          long count = 0;
+          for (Iterator<Try<ParceQ>> it = parse(reader.lines().iterator()); it.hasNext(); ) {
+            results.accept(it.next());
+            count++;
+          }
+          return count;
+        })
+        .recoverWith(UncheckedIOException.class, e -> Try.failure(e.getCause()));
+  }
+
+  private Try<ParceQ>[] parseBatch(String[] queries) {
+    final Try<ParceQ>[] results = newResults(queries.length);
+    for (int i = 0; i < queries.length; i++) {
+      results[i] = parseQuery(queries[i]);
+    }
+    return results;
+  }
+
+  // Try rethrows fatal errors, which would fail the whole batch, so the errors that only concern
+  // one query are wrapped. Other virtual machine errors, like running out of memory, still fail
+  // the run.
+  private Try<ParceQ> parseQuery(String query) {
+    try {
+      return Try.of(() -> cache != null ? cache.parse(query) : ParceQ.parse(query))
+          .flatMap(result -> result);
+    } catch (StackOverflowError | LinkageError e) {
+      return Try.failure(new ExecutionException(e));
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Try<ParceQ>[] newResults(int length) {
+    return (Try<ParceQ>[]) new Try[length];
+  }
+
+  private class OrderedResults implements java.util.Iterator<Try<ParceQ>> {
+    private final java.util.Iterator<String> queries;
+    private final ArrayDeque<CompletableFuture<Try<ParceQ>[]>> pending = new ArrayDeque<>();
+    private Try<ParceQ>[] batch;
+    private int position;
+
+    OrderedResults(java.util.Iterator<String> queries) {
+      this.queries = queries;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (batch != null && position < batch.length) {
+        return true;
+      }
+      submit();
+      return !pending.isEmpty();
+    }
+
+    @Override
+    public Try<ParceQ> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (batch == null || position == batch.length) {
+        batch = pending.poll().join();
+        position = 0;
+        submit();
+      }
+      final Try<ParceQ> result = batch[position];
+      batch[position++] = null;
+      return result;
+    }
+
+    private void submit() {
+      while (pending.size() < maxPendingBatches && queries.hasNext()) {
+        final String[] batchQueries = new String[batchSize];
+        int count = 0;
+        while (count < batchSize && queries.hasNext()) {
+          batchQueries[count++] = queries.next();
+        }
+        final String[] submitted =
+            count == batchSize ? batchQueries : Arrays.copyOf(batchQueries, count);
+        pending.add(CompletableFuture.supplyAsync(() -> parseBatch(submitted), executor));
+      }
+    }
+  }
+
+  public static class Builder {
+    private Executor executor = ForkJoinPool.commonPool();
+    private ParseCache cache;
+    private int batchSize = 64;
+    private int maxPendingBatches = 4 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Executor to parse on, the common fork-join pool by default. Any executor works, including
+     * one with a thread per task.
+     */
+    public Builder executor(Executor executor) {
+      if (executor == null) {
+        throw new IllegalArgumentException("executor must not be null");
+      }
+      this.executor = executor;
+      return this;
+    }
+
+    public Builder cache(ParseCache cache) {
+      this.cache = cache;
+      return this;
+    }
+
+    public Builder batchSize(int batchSize) {
+      this.batchSize = requirePositive(batchSize);
+      return this;
+    }
+
+    public Builder maxPendingBatches(int maxPendingBatches) {
+      this.maxPendingBatches = requirePositive(maxPendingBatches);
+      return this;
+    }
+
+    public BulkParser build() {
+      return new BulkParser(this);
+    }
+
+    private static int requirePositive(int value) {
+      if (value <= 0) {
+        throw new IllegalArgumentException("Value must be positive: " + value);
+      }
+      return value;
+    }
+  }
+}
@@ -3,12 +3,13 @@ package com.github.audunhalland.parceq;
 import io.vavr.collection.List;
 import io.vavr.control.Either;
 import io.vavr.control.Option;
-import java.util.Objects;
+import java.util.ArrayDeque;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class Expression {
   private final Either<SubExpression, List<Term>> value;
+  private int hash;
 
   Expression(Either<SubExpression, List<Term>> value) {
     this.value = value;
@@ -149,43 +150,190 @@ public class Expression {
   }
 
   public Expression flatMapTerms(Function<List<Term>, Expression> mapper) {
-    if (isTerms()) {
-      return mapper.apply(value.get());
-    } else {
-      return of(value.getLeft().operator,
-          value.getLeft().operands
-              .map(expr -> expr.flatMapTerms(mapper)));
+    return transform(new ExpressionTransformer() {
+      @Override
+      public Expression after(Expression expression) {
+        return expression.isTerms() ? mapper.apply(expression.value.get()) : expression;
+      }
+    });
+  }
+
+  /**
+   * Visit this expression and its operands depth first, using an explicit stack.
+   */
+  public void walk(ExpressionVisitor visitor) {
+    final ArrayDeque<Expression> expressions = new ArrayDeque<>();
+    final ArrayDeque<List<Expression>> remaining = new ArrayDeque<>();
+    Expression next = this;
+    while (true) {
+      if (next != null) {
+        expressions.push(next);
+        remaining.push(visitor.enter(next) && next.isCompound()
+            ? next.value.getLeft().operands
+            : List.empty());
+      }
+
+      final List<Expression> operands = remaining.pop();
+      if (operands.isEmpty()) {
+        visitor.leave(expressions.pop());
+        if (expressions.isEmpty()) {
+          return;
+        }
+        next = null;
+      } else {
+        remaining.push(operands.tail());
+        next = operands.head();
+      }
+    }
+  }
+
+  /**
+   * Rebuild this expression bottom up, using an explicit stack. Unchanged subtrees are shared
+   * with the original.
+   */
+  public Expression transform(ExpressionTransformer transformer) {
+    final ArrayDeque<TransformFrame> stack = new ArrayDeque<>();
+    Expression next = this;
+    while (true) {
+      if (next != null) {
+        stack.push(new TransformFrame(next, transformer.before(next)));
+      }
+
+      final TransformFrame top = stack.peek();
+      if (!top.remaining.isEmpty()) {
+        next = top.remaining.head();
+        top.remaining = top.remaining.tail();
+        continue;
+      }
+
+      stack.pop();
+      final Expression result = transformer.after(top.changed
+          ? of(top.expression.value.getLeft().operator, top.transformed.reverse())
+          : top.expression);
+      if (stack.isEmpty()) {
+        return result;
+      }
+      final TransformFrame parent = stack.peek();
+      parent.transformed = parent.transformed.prepend(result);
+      parent.changed |= result != top.original;
+      next = null;
     }
   }
 
   @Override
   public String toString() {
-    if (isCompound()) {
-      return value.getLeft().toString();
-    } else {
-      return "terms("
-          + value.get()
-          .map(term -> "\"" + term.getValue() + "\"@" + term.getId())
-          .collect(Collectors.joining(", "))
-          + ")";
-    }
+    final StringBuilder builder = new StringBuilder();
+    walk(new ExpressionVisitor() {
+      private boolean first = true;
+
+      @Override
+      public boolean enter(Expression expression) {
+        if (!first) {
+          builder.append(", ");
+        }
+        if (expression.isCompound()) {
+          builder.append(expression.value.getLeft().operator).append('(');
+          first = true;
+        } else {
+          builder.append("terms(")
+              .append(expression.value.get()
+                  .map(term -> term.getField().map(field -> field + ":").getOrElse("")
+                      + "\"" + term.getValue() + "\"@" + term.getId())
+                  .collect(Collectors.joining(", ")))
+              .append(')');
+        }
+        return true;
+      }
+
+      @Override
+      public void leave(Expression expression) {
+        if (expression.isCompound()) {
+          builder.append(')');
+        }
+        first = false;
+      }
+    });
+    return builder.toString();
   }
 
   @Override
   public boolean equals(Object other) {
     if (this == other) return true;
-    return other instanceof Expression
-        && value.equals(((Expression) other).value);
+    if (!(other instanceof Expression)) return false;
+
+    final ArrayDeque<Expression> stack = new ArrayDeque<>();
+    stack.push(this);
+    stack.push((Expression) other);
+    while (!stack.isEmpty()) {
+      final Expression b = stack.pop();
+      final Expression a = stack.pop();
+      if (a == b) {
+        continue;
+      } else if (a.hashCode() != b.hashCode() || a.isTerms() != b.isTerms()) {
+        return false;
+      } else if (a.isTerms()) {
+        if (!a.value.get().equals(b.value.get())) {
+          return false;
+        }
+        continue;
+      }
+
+      final SubExpression x = a.value.getLeft();
+      final SubExpression y = b.value.getLeft();
+      if (x.operator != y.operator || x.operands.size() != y.operands.size()) {
+        return false;
+      }
+      for (List<Expression> i = x.operands, j = y.operands; !i.isEmpty(); i = i.tail(), j = j.tail()) {
+        stack.push(i.head());
+        stack.push(j.head());
+      }
+    }
+    return true;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(value);
+    if (hash == 0) {
+      // Hash the operands first, so that no hash computation recurses more than one level
+      walk(new ExpressionVisitor() {
+        @Override
+        public boolean enter(Expression expression) {
+          return expression.hash == 0;
+        }
+
+        @Override
+        public void leave(Expression expression) {
+          if (expression.hash == 0) {
+            expression.hash = expression.value.hashCode();
+          }
+        }
+      });
+    }
+    return hash;
+  }
+
+  public Either<SubExpression, List<Term>> getValue() {
+    return value;
+  }
+
+  private static class TransformFrame {
+    final Expression original;
+    final Expression expression;
+    List<Expression> remaining;
+    List<Expression> transformed = List.empty();
+    boolean changed;
+
+    TransformFrame(Expression original, Expression expression) {
+      this.original = original;
+      this.expression = expression;
+      this.remaining = expression.isCompound() ? expression.value.getLeft().operands : List.empty();
+    }
   }
 
   public static class SubExpression {
     final Operator operator;
     final List<Expression> operands;
+    private int hash;
 
     public SubExpression(Operator operator, List<Expression> operands) {
       this.operator = operator;
@@ -193,12 +341,17 @@ public class Expression {
           .filter(expr -> !expr.isNoop());
     }
 
+    public Operator getOperator() {
+      return operator;
+    }
+
+    public List<Expression> getOperands() {
+      return operands;
+    }
+
     @Override
     public String toString() {
-      return operator
-          + "("
-          + String.join(", ", operands.map(Object::toString))
-          + ")";
+      return Expression.of(this).toString();
     }
 
     @Override
@@ -211,7 +364,12 @@ public class Expression {
 
     @Override
     public int hashCode() {
-      return Objects.hash(operator, operands);
+      int h = hash;
+      if (h == 0) {
+        h = 31 * operator.ordinal() + operands.hashCode();
+        hash = h;
+      }
+      return h;
     }
   }
 }
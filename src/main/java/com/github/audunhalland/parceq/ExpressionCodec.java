@@ -0,0 +1,581 @@
+package com.github.audunhalland.parceq;
+
+import io.vavr.collection.List;
+import io.vavr.control.Try;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of parsed queries, for sending them to other processes without
+ * parsing them again.
+ *
+ * <p>Strings are stored once, in a table of UTF-8 values, and all numbers are unsigned varints:
+ * <pre>
+ *   version (byte)
+ *   strings: count, then the length and UTF-8 bytes of each string
+ *   terms: count, then for each term
+ *     header: (field string + 1) &lt;&lt; 2 | kind, where field 0 means no field
+ *     ROOT and DERIVED terms: value string
+ *     JOINED and RUN terms: separator string, for a value that is its roots joined by the
+ *       separator
+ *     DERIVED and JOINED terms: root count, then the distance back to each root term
+ *     RUN terms, whose roots are consecutive terms like for shingles: root count, then the
+ *       distance back to the first root term
+ *   expression, depth first: an opcode byte per node and its operand count, followed by the
+ *     operands, or by the term indexes for TERMS
+ * </pre>
+ *
+ * <p>Terms are stored in id order, including the roots of derived terms, and decode to terms
+ * of a new allocator in the same order. So a query keeps its term ids when every term of its
+ * allocator is in the expression or is a root of one, as for queries parsed and shingled here.
+ * Terms from other allocators come last, and only keep their value and field. Decoded values
+ * keep their UTF-8 bytes, and are only decoded when asked for.
+ */
+public final class ExpressionCodec {
+  static final int VERSION = 1;
+
+  // Term kinds
+  private static final int ROOT = 0;
+  private static final int DERIVED = 1;
+  private static final int JOINED = 2;
+  private static final int RUN = 3;
+
+  // Opcodes
+  private static final int TERMS = 0;
+  private static final int NOOP = 1;
+  private static final int BOOST = 2;
+  private static final int OR = 3;
+  private static final int AND = 4;
+  private static final int NOT = 5;
+
+  private ExpressionCodec() {
+  }
+
+  public static ByteBuffer encode(ParceQ query) {
+    final Output output = new Encoder(query.getTermAllocator()).encode(query.getExpression());
+    return ByteBuffer.wrap(output.bytes, 0, output.length);
+  }
+
+  /**
+   * Encode into the buffer at its position, which is moved past the encoded query.
+   *
+   * @throws java.nio.BufferOverflowException if the buffer has too little space left
+   */
+  public static void encode(ParceQ query, ByteBuffer buffer) {
+    final Output output = new Encoder(query.getTermAllocator()).encode(query.getExpression());
+    buffer.put(output.bytes, 0, output.length);
+  }
+
+  /**
+   * Decode a query at the position of the buffer, and move the position past it. Malformed
+   * input fails with {@link IllegalArgumentException}, and leaves the position unchanged.
+   */
+  public static Try<ParceQ> decode(ByteBuffer buffer) {
+    return Try.of(() -> {
+      final Decoder decoder = new Decoder(buffer);
+      final ParceQ query = decoder.decode();
+      buffer.position(decoder.input.position());
+      return query;
+    });
+  }
+
+  private static int opcode(Operator operator) {
+    switch (operator) {
+      case NOOP:
+        return NOOP;
+      case BOOST:
+        return BOOST;
+      case OR:
+        return OR;
+      case AND:
+        return AND;
+      case NOT:
+      default:
+        return NOT;
+    }
+  }
+
+  private static Operator operator(int opcode) {
+    switch (opcode) {
+      case NOOP:
+        return Operator.NOOP;
+      case BOOST:
+        return Operator.BOOST;
+      case OR:
+        return Operator.OR;
+      case AND:
+        return Operator.AND;
+      case NOT:
+        return Operator.NOT;
+      default:
+        throw malformed("unknown opcode " + opcode);
+    }
+  }
+
+  private static IllegalArgumentException malformed(String reason) {
+    return new IllegalArgumentException("Malformed query encoding: " + reason);
+  }
+
+  private static final class Output {
+    byte[] bytes = new byte[64];
+    int length;
+
+    void writeByte(int b) {
+      if (length == bytes.length) {
+        bytes = Arrays.copyOf(bytes, length * 2);
+      }
+      bytes[length++] = (byte) b;
+    }
+
+    void writeVarint(int value) {
+      while ((value & ~0x7f) != 0) {
+        writeByte((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      writeByte(value);
+    }
+
+    void write(byte[] values, int offset, int count) {
+      if (length + count > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+      }
+      System.arraycopy(values, offset, bytes, length, count);
+      length += count;
+    }
+
+    void write(Output other) {
+      write(other.bytes, 0, other.length);
+    }
+  }
+
+  private static final class Encoder {
+    private final TermAllocator termAllocator;
+    private final TermTable table;
+    private final Output strings = new Output();
+    private final Map<ByteBuffer, Integer> stringIndexes = new HashMap<>();
+    private final Output terms = new Output();
+    private final Output expression = new Output();
+    private final BitSet ownIds = new BitSet();
+    private final Map<Term, Integer> otherTerms = new LinkedHashMap<>();
+    private final int[] termIndexes;
+    private final byte[][] values;
+
+    Encoder(TermAllocator termAllocator) {
+      this.termAllocator = termAllocator;
+      this.table = termAllocator.getTable();
+      this.termIndexes = new int[termAllocator.size()];
+      this.values = new byte[termAllocator.size()][];
+    }
+
+    Output encode(Expression root) {
+      root.walk(new ExpressionVisitor() {
+        @Override
+        public boolean enter(Expression expression) {
+          if (expression.isTerms()) {
+            expression.getValue().get().forEach(Encoder.this::collect);
+          }
+          return true;
+        }
+
+        @Override
+        public void leave(Expression expression) {
+        }
+      });
+
+      int termCount = 0;
+      for (int id = ownIds.nextSetBit(0); id >= 0; id = ownIds.nextSetBit(id + 1)) {
+        termIndexes[id] = termCount++;
+        writeOwnTerm(id);
+      }
+      for (Map.Entry<Term, Integer> entry : otherTerms.entrySet()) {
+        entry.setValue(termCount++);
+        writeOtherTerm(entry.getKey());
+      }
+
+      root.walk(new ExpressionVisitor() {
+        @Override
+        public boolean enter(Expression node) {
+          if (node.isTerms()) {
+            final List<Term> nodeTerms = node.getValue().get();
+            expression.writeByte(TERMS);
+            expression.writeVarint(nodeTerms.size());
+            for (Term term : nodeTerms) {
+              expression.writeVarint(isOwn(term)
+                  ? termIndexes[term.getId()]
+                  : otherTerms.get(term));
+            }
+          } else {
+            final Expression.SubExpression subExpression = node.getValue().getLeft();
+            expression.writeByte(opcode(subExpression.getOperator()));
+            expression.writeVarint(subExpression.getOperands().size());
+          }
+          return true;
+        }
+
+        @Override
+        public void leave(Expression node) {
+        }
+      });
+
+      final Output output = new Output();
+      output.writeByte(VERSION);
+      output.writeVarint(stringIndexes.size());
+      output.write(strings);
+      output.writeVarint(termCount);
+      output.write(terms);
+      output.write(expression);
+      return output;
+    }
+
+    private boolean isOwn(Term term) {
+      return term.getTable() == table && term.getId() >= 0 && term.getId() < termIndexes.length;
+    }
+
+    private void collect(Term term) {
+      if (!isOwn(term)) {
+        otherTerms.putIfAbsent(term, -1);
+        return;
+      }
+      final int id = term.getId();
+      if (!ownIds.get(id)) {
+        ownIds.set(id);
+        if (table.isDerived(id)) {
+          for (int root : roots(id)) {
+            ownIds.set(root);
+          }
+        }
+      }
+    }
+
+    // Roots are always allocated before the terms derived from them
+    private int[] roots(int id) {
+      final int[] roots = termAllocator.rootIds(id);
+      int count = 0;
+      for (int root : roots) {
+        if (root >= 0 && root < id) {
+          roots[count++] = root;
+        }
+      }
+      return count == roots.length ? roots : Arrays.copyOf(roots, count);
+    }
+
+    private void writeOwnTerm(int id) {
+      final int fieldId = table.fieldId(id);
+      final int field = fieldId == TermTable.NO_FIELD ? 0 : string(table.fieldName(fieldId)) + 1;
+      final byte[] value = value(id);
+      if (!table.isDerived(id)) {
+        terms.writeVarint(field << 2 | ROOT);
+        terms.writeVarint(string(value, 0, value.length));
+        return;
+      }
+
+      final int[] roots = roots(id);
+      final int index = termIndexes[id];
+      final int separatorLength = separatorLength(value, roots);
+      if (separatorLength >= 0 && isRun(roots)) {
+        terms.writeVarint(field << 2 | RUN);
+        terms.writeVarint(string(value, value(roots[0]).length, separatorLength));
+        terms.writeVarint(roots.length);
+        terms.writeVarint(index - termIndexes[roots[0]]);
+        return;
+      } else if (separatorLength >= 0) {
+        terms.writeVarint(field << 2 | JOINED);
+        terms.writeVarint(string(value, value(roots[0]).length, separatorLength));
+      } else {
+        terms.writeVarint(field << 2 | DERIVED);
+        terms.writeVarint(string(value, 0, value.length));
+      }
+      terms.writeVarint(roots.length);
+      for (int root : roots) {
+        terms.writeVarint(index - termIndexes[root]);
+      }
+    }
+
+    private boolean isRun(int[] roots) {
+      for (int i = 1; i < roots.length; i++) {
+        if (termIndexes[roots[i]] != termIndexes[roots[i - 1]] + 1) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void writeOtherTerm(Term term) {
+      final int field = term.getField().isDefined() ? string(term.getField().get()) + 1 : 0;
+      final byte[] value = term.getValue().getBytes(StandardCharsets.UTF_8);
+      terms.writeVarint(field << 2 | ROOT);
+      terms.writeVarint(string(value, 0, value.length));
+    }
+
+    /**
+     * Length of the separator if the value is the values of two or more roots joined by a
+     * separator, otherwise -1.
+     */
+    private int separatorLength(byte[] value, int[] roots) {
+      if (roots.length < 2) {
+        return -1;
+      }
+      int rootsLength = 0;
+      for (int root : roots) {
+        rootsLength += value(root).length;
+      }
+      final int separatorsLength = value.length - rootsLength;
+      if (separatorsLength < 0 || separatorsLength % (roots.length - 1) != 0) {
+        return -1;
+      }
+      final int separatorLength = separatorsLength / (roots.length - 1);
+      final int separatorStart = value(roots[0]).length;
+
+      int position = 0;
+      for (int i = 0; i < roots.length; i++) {
+        if (i > 0) {
+          if (!regionEquals(value, position, value, separatorStart, separatorLength)) {
+            return -1;
+          }
+          position += separatorLength;
+        }
+        final byte[] rootValue = value(roots[i]);
+        if (!regionEquals(value, position, rootValue, 0, rootValue.length)) {
+          return -1;
+        }
+        position += rootValue.length;
+      }
+      return separatorLength;
+    }
+
+    private byte[] value(int id) {
+      byte[] value = values[id];
+      if (value == null) {
+        value = table.utf8(id);
+        values[id] = value;
+      }
+      return value;
+    }
+
+    private int string(String value) {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      return string(bytes, 0, bytes.length);
+    }
+
+    private int string(byte[] bytes, int offset, int length) {
+      final ByteBuffer key = ByteBuffer.wrap(bytes, offset, length).slice();
+      final Integer existing = stringIndexes.get(key);
+      if (existing != null) {
+        return existing;
+      }
+      final int index = stringIndexes.size();
+      stringIndexes.put(key, index);
+      strings.writeVarint(length);
+      strings.write(bytes, offset, length);
+      return index;
+    }
+
+    private static boolean regionEquals(byte[] a, int aOffset, byte[] b, int bOffset,
+        int length) {
+      for (int i = 0; i < length; i++) {
+        if (a[aOffset + i] != b[bOffset + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class Decoder {
+    final ByteBuffer input;
+    private final Utf8Chars chars;
+    private final int base;
+    private final TermAllocator termAllocator = new TermAllocator();
+    private final StringBuilder joined = new StringBuilder();
+    private int[] stringStarts;
+    private int[] stringLengths;
+    private int[] fieldIds;
+    private Term[] terms;
+    // Value string of each root term, and -1 for derived terms
+    private int[] rootValues;
+
+    Decoder(ByteBuffer buffer) {
+      this.input = buffer.duplicate();
+      this.chars = Utf8Chars.of(buffer);
+      this.base = buffer.position();
+    }
+
+    ParceQ decode() {
+      final int version = readByte();
+      if (version != VERSION) {
+        throw malformed("unsupported version " + version);
+      }
+      readStrings();
+      readTerms();
+      return new ParceQ(termAllocator, readExpression());
+    }
+
+    private void readStrings() {
+      final int count = readCount();
+      stringStarts = new int[count];
+      stringLengths = new int[count];
+      fieldIds = new int[count];
+      Arrays.fill(fieldIds, -2);
+      for (int i = 0; i < count; i++) {
+        final int length = readCount();
+        stringStarts[i] = input.position() - base;
+        stringLengths[i] = length;
+        input.position(input.position() + length);
+      }
+    }
+
+    private void readTerms() {
+      final int count = readCount();
+      terms = new Term[count];
+      rootValues = new int[count];
+      for (int i = 0; i < count; i++) {
+        final int header = readVarint();
+        final int kind = header & 3;
+        final int field = header >>> 2;
+        final int fieldId = field == 0 ? TermTable.NO_FIELD : fieldId(field - 1);
+        final int string = readString();
+
+        if (kind == ROOT) {
+          rootValues[i] = string;
+          terms[i] = termAllocator.createRootTerm(string(string), fieldId, true);
+          continue;
+        }
+
+        final int rootCount = readCount();
+        final int[] rootIndexes = new int[rootCount];
+        final Term[] roots = new Term[rootCount];
+        final int first = kind == RUN ? i - readVarint() : 0;
+        for (int j = 0; j < rootCount; j++) {
+          final int root = kind == RUN ? first + j : i - readVarint();
+          if (root < 0 || root >= i || rootValues[root] < 0) {
+            throw malformed("term " + i + " has a root " + root + " that is not a root term");
+          }
+          rootIndexes[j] = root;
+          roots[j] = terms[root];
+        }
+        rootValues[i] = -1;
+        terms[i] = termAllocator.createDerivedTerm(
+            kind == DERIVED ? string(string) : join(rootIndexes, string),
+            List.of(roots), fieldId, true);
+      }
+    }
+
+    private Expression readExpression() {
+      final ArrayDeque<Frame> stack = new ArrayDeque<>();
+      while (true) {
+        final int opcode = readByte();
+        final int count = readCount();
+        Expression expression;
+        if (opcode == TERMS) {
+          final Term[] nodeTerms = new Term[count];
+          for (int i = 0; i < count; i++) {
+            final int index = readVarint();
+            if (index < 0 || index >= terms.length) {
+              throw malformed("unknown term " + index);
+            }
+            nodeTerms[i] = terms[index];
+          }
+          expression = Expression.of(List.of(nodeTerms));
+        } else if (count > 0) {
+          stack.push(new Frame(operator(opcode), count));
+          continue;
+        } else {
+          expression = Expression.of(operator(opcode), List.empty());
+        }
+
+        // Complete the operators that now have all of their operands
+        while (true) {
+          final Frame top = stack.peek();
+          if (top == null) {
+            return expression;
+          }
+          top.operands = top.operands.prepend(expression);
+          if (--top.remaining > 0) {
+            break;
+          }
+          stack.pop();
+          expression = Expression.of(top.operator, top.operands.reverse());
+        }
+      }
+    }
+
+    private CharSequence string(int index) {
+      return chars.subSequence(stringStarts[index], stringStarts[index] + stringLengths[index]);
+    }
+
+    // Joined in UTF-8, one char per byte like the strings
+    private CharSequence join(int[] rootIndexes, int separator) {
+      joined.setLength(0);
+      for (int i = 0; i < rootIndexes.length; i++) {
+        if (i > 0) {
+          joined.append(string(separator));
+        }
+        joined.append(string(rootValues[rootIndexes[i]]));
+      }
+      return joined;
+    }
+
+    private int fieldId(int string) {
+      if (string >= fieldIds.length) {
+        throw malformed("unknown string " + string);
+      }
+      if (fieldIds[string] == -2) {
+        fieldIds[string] = termAllocator.internField(string(string).toString());
+      }
+      return fieldIds[string];
+    }
+
+    private int readString() {
+      final int index = readVarint();
+      if (index < 0 || index >= stringStarts.length) {
+        throw malformed("unknown string " + index);
+      }
+      return index;
+    }
+
+    // Every counted item takes at least one byte, so larger counts can not be valid
+    private int readCount() {
+      final int count = readVarint();
+      if (count < 0 || count > input.remaining()) {
+        throw malformed("count " + count + " exceeds the remaining input");
+      }
+      return count;
+    }
+
+    private int readVarint() {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        final int b = readByte();
+        value |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw malformed("varint is too long");
+    }
+
+    private int readByte() {
+      if (!input.hasRemaining()) {
+        throw malformed("unexpected end of input");
+      }
+      return input.get() & 0xff;
+    }
+  }
+
+  private static final class Frame {
+    final Operator operator;
+    int remaining;
+    List<Expression> operands = List.empty();
+
+    Frame(Operator operator, int remaining) {
+      this.operator = operator;
+      this.remaining = remaining;
+    }
+  }
+}
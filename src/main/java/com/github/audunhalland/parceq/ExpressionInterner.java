@@ -0,0 +1,62 @@
+package com.github.audunhalland.parceq;
+
+import io.vavr.collection.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hash-consing factory for terms and expressions.
+ *
+ * <p>Interning replaces every node with a canonical instance, so two interned expressions are
+ * structurally equal exactly when they are the same object, and identical subtrees are shared.
+ * Hash codes are cached in the nodes, so interning a tree costs one lookup per node.
+ * An interner is safe to use from several threads.
+ */
+public class ExpressionInterner {
+  private final ConcurrentHashMap<Term, Term> terms = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Expression, Expression> expressions = new ConcurrentHashMap<>();
+
+  public Term intern(Term term) {
+    final Term existing = terms.putIfAbsent(term, term);
+    return existing != null ? existing : term;
+  }
+
+  // Children are interned first, so looking up the parent only compares canonical references
+  public Expression intern(Expression expression) {
+    return expression.transform(new ExpressionTransformer() {
+      @Override
+      public Expression after(Expression expression) {
+        Expression candidate = expression;
+        if (expression.isTerms()) {
+          final List<Term> terms = expression.getValue().get();
+          final List<Term> interned = terms.map(ExpressionInterner.this::intern);
+          if (!sameElements(interned, terms)) {
+            candidate = Expression.of(interned);
+          }
+        }
+
+        final Expression existing = expressions.putIfAbsent(candidate, candidate);
+        return existing != null ? existing : candidate;
+      }
+    });
+  }
+
+  public int size() {
+    return terms.size() + expressions.size();
+  }
+
+  public void clear() {
+    terms.clear();
+    expressions.clear();
+  }
+
+  private static <T> boolean sameElements(List<T> a, List<T> b) {
+    while (!a.isEmpty()) {
+      if (a.head() != b.head()) {
+        return false;
+      }
+      a = a.tail();
+      b = b.tail();
+    }
+    return true;
+  }
+}
@@ -0,0 +1,335 @@
+package com.github.audunhalland.parceq;
+
+import io.vavr.collection.List;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.function.BiPredicate;
+
+/**
+ * Rewrites expressions into a smaller canonical form with the same matches.
+ *
+ * <p>Nested operators of the same kind are flattened, duplicate operands removed, operands
+ * absorbed ({@code a OR (a AND b)} is {@code a}, {@code a AND (a OR b)} is {@code a}), double
+ * negation removed, single operand {@code AND} and {@code OR} unwrapped and contradictions such
+ * as {@code x AND NOT x} folded into {@link Expression#noop()}. Operands and terms are then sorted
+ * into a canonical order.
+ *
+ * <p>Terms are compared by value and field, not by id, so repeated words are deduplicated and
+ * the term with the lowest id is kept. A rewrite never moves a {@code BOOST} into a conjunction
+ * where it would change from a required to an optional clause, see {@link Program}.
+ */
+public class ExpressionNormalizer {
+  // Constants used while normalising. FALSE matches nothing and TRUE matches everything.
+  // The empty boost and negation keep their operator, as a conjunction treats those operands
+  // differently from positive ones.
+  private static final Expression FALSE = Expression.of(List.empty());
+  private static final Expression TRUE = Expression.of(Operator.AND, List.empty());
+  private static final Expression EMPTY_BOOST = Expression.of(Operator.BOOST, List.of(FALSE));
+  private static final Expression EMPTY_NOT = Expression.of(Operator.NOT, List.of(FALSE));
+
+  static final Comparator<Term> VALUE_ORDER = Comparator
+      .comparing(Term::getValue)
+      .thenComparing(term -> term.getField().getOrElse(""))
+      .thenComparing(term -> term.getField().isDefined());
+
+  static final Comparator<Term> TERM_ORDER = VALUE_ORDER.thenComparingInt(Term::getId);
+
+  static final Comparator<Expression> ORDER = ExpressionNormalizer::compare;
+
+  private ExpressionNormalizer() {
+  }
+
+  public static Expression normalize(Expression expression) {
+    final Expression normalized = removeDoubleNegation(rewrite(expression));
+    return isFalse(normalized) ? Expression.noop() : normalized;
+  }
+
+  private static Expression rewrite(Expression expression) {
+    return expression.transform(new ExpressionTransformer() {
+      @Override
+      public Expression after(Expression expression) {
+        return rewriteNode(expression);
+      }
+    });
+  }
+
+  // The operands are already rewritten
+  private static Expression rewriteNode(Expression expression) {
+    if (expression.isTerms()) {
+      return terms(expression.getValue().get());
+    }
+
+    final Expression.SubExpression sub = expression.getValue().getLeft();
+    final List<Expression> operands = sub.operands;
+    switch (sub.operator) {
+      case AND:
+        // NOT(NOT(x)) is not a positive operand, so it decides whether boosts are required
+        return positive(and(hasPositive(operands) || !operands.exists(ExpressionNormalizer::isBoost)
+            ? operands.map(ExpressionNormalizer::removeDoubleNegation)
+            : operands));
+      case OR:
+        return positive(or(operands.map(ExpressionNormalizer::removeDoubleNegation)));
+      case BOOST:
+        return boost(operands.map(ExpressionNormalizer::removeDoubleNegation));
+      case NOT:
+        return not(operands.map(ExpressionNormalizer::removeDoubleNegation));
+      case NOOP:
+      default:
+        return FALSE;
+    }
+  }
+
+  private static Expression removeDoubleNegation(Expression expression) {
+    if (expression.isNot() && operandsOf(expression).size() == 1) {
+      final Expression operand = operandsOf(expression).head();
+      if (operand.isNot()) {
+        return positive(or(operandsOf(operand)));
+      }
+    }
+    return expression;
+  }
+
+  // A required operand of an AND must not turn into an optional boost or an exclusion
+  private static Expression positive(Expression expression) {
+    final Expression result = isBoost(expression) ? or(operandsOf(expression)) : expression;
+    if (isTrue(result)) {
+      return TRUE;
+    }
+    return result.isNot() ? Expression.of(Operator.AND, List.of(result)) : result;
+  }
+
+  private static Expression terms(List<Term> terms) {
+    return Expression.of(distinct(terms.sorted(TERM_ORDER),
+        (a, b) -> VALUE_ORDER.compare(a, b) == 0));
+  }
+
+  private static Expression or(List<Expression> operands) {
+    if (operands.exists(ExpressionNormalizer::isTrue)) {
+      return TRUE;
+    }
+    final List<Expression> flat = canonical(operands
+        .flatMap(expr -> isOperator(expr, Operator.OR) ? operandsOf(expr) : List.of(expr))
+        .filter(expr -> !isFalse(expr)));
+
+    // Drop any operand that implies another one
+    final List<Expression> result = flat
+        .filter(x -> !flat.exists(y -> y != x && implies(x, y) && !implies(y, x)));
+
+    if (result.isEmpty()) {
+      return FALSE;
+    }
+    return result.size() == 1 ? result.head() : Expression.of(Operator.OR, result);
+  }
+
+  private static Expression boost(List<Expression> operands) {
+    final List<Expression> flat = canonical(operands
+        .flatMap(expr -> isOperator(expr, Operator.BOOST) ? operandsOf(expr) : List.of(expr))
+        .filter(expr -> !isFalse(expr)));
+    return flat.isEmpty() ? EMPTY_BOOST : Expression.of(Operator.BOOST, flat);
+  }
+
+  private static Expression not(List<Expression> operands) {
+    final List<Expression> flat = canonical(operands.filter(expr -> !isFalse(expr)));
+    if (flat.exists(ExpressionNormalizer::isTrue)) {
+      return FALSE;
+    } else if (flat.isEmpty()) {
+      return EMPTY_NOT;
+    }
+    return Expression.of(Operator.NOT, flat);
+  }
+
+  private static Expression and(List<Expression> operands) {
+    if (operands.exists(expr -> isFalse(expr) && !isBoost(expr))) {
+      return FALSE;
+    }
+
+    // Only nested conjunctions with a positive operand are flattened, so that the parent
+    // keeps its boosts optional or required as before
+    final List<Expression> flat = canonical(operands
+        .flatMap(expr -> isOperator(expr, Operator.AND) && hasPositive(operandsOf(expr))
+            ? operandsOf(expr)
+            : List.of(expr)));
+
+    final List<Expression> boosts = flat.filter(ExpressionNormalizer::isBoost);
+    final List<Expression> nonEmptyBoosts = boosts.filter(expr -> !isFalse(expr));
+    final List<Expression> nots = flat.filter(expr -> expr.isNot() && !isTrue(expr));
+    final List<Expression> positives = flat.filter(ExpressionNormalizer::isPositive);
+
+    if (positives.isEmpty() && !boosts.isEmpty() && nonEmptyBoosts.isEmpty()) {
+      return FALSE;
+    }
+    for (Expression not : nots) {
+      for (Expression excluded : operandsOf(not)) {
+        if (positives.exists(positive -> implies(positive, excluded))) {
+          return FALSE;
+        }
+      }
+    }
+
+    // Drop any required operand implied by another one. TRUE is only kept when it is what
+    // makes the boosts optional.
+    final List<Expression> required = positives
+        .filter(x -> !isTrue(x))
+        .filter(x -> !positives.exists(y -> y != x && implies(y, x) && !implies(x, y)));
+    final List<Expression> result = canonical(
+        (required.isEmpty() && !positives.isEmpty() && !nonEmptyBoosts.isEmpty()
+            ? List.of(TRUE)
+            : required)
+            .appendAll(nonEmptyBoosts)
+            .appendAll(nots));
+    if (result.isEmpty()) {
+      return TRUE;
+    }
+    return result.size() == 1 && !isBoost(result.head())
+        ? result.head()
+        : Expression.of(Operator.AND, result);
+  }
+
+  /**
+   * Whether every match of a is a match of b, as far as can be told from the operands.
+   */
+  private static boolean implies(Expression a, Expression b) {
+    final List<Expression> conjuncts = conjuncts(a);
+    final List<Expression> disjuncts = disjuncts(b);
+    return conjuncts.exists(x -> disjuncts.exists(y -> contains(y, x)));
+  }
+
+  // Whether every match of inner is a match of outer, for a single conjunct and disjunct
+  private static boolean contains(Expression outer, Expression inner) {
+    if (compare(outer, inner) == 0) {
+      return true;
+    }
+    if (outer.isTerms() && inner.isTerms()) {
+      final List<Term> terms = outer.getValue().get();
+      return inner.getValue().get().forAll(term -> terms.exists(other -> sameValue(term, other)));
+    }
+    return false;
+  }
+
+  private static List<Expression> conjuncts(Expression expression) {
+    if (isOperator(expression, Operator.AND) && hasPositive(operandsOf(expression))) {
+      return operandsOf(expression).filter(ExpressionNormalizer::isPositive);
+    }
+    return List.of(expression);
+  }
+
+  private static List<Expression> disjuncts(Expression expression) {
+    if (isOperator(expression, Operator.OR)) {
+      return operandsOf(expression);
+    }
+    return List.of(expression);
+  }
+
+  private static List<Expression> canonical(List<Expression> operands) {
+    return distinct(operands.sorted(ORDER), (a, b) -> compare(a, b) == 0);
+  }
+
+  private static <T> List<T> distinct(List<T> sorted, BiPredicate<T, T> same) {
+    List<T> result = List.empty();
+    for (T item : sorted) {
+      if (result.isEmpty() || !same.test(result.head(), item)) {
+        result = result.prepend(item);
+      }
+    }
+    return result.reverse();
+  }
+
+  private static boolean sameValue(Term a, Term b) {
+    return VALUE_ORDER.compare(a, b) == 0;
+  }
+
+  private static boolean hasPositive(List<Expression> operands) {
+    return operands.exists(ExpressionNormalizer::isPositive);
+  }
+
+  private static boolean isPositive(Expression expression) {
+    return !expression.isNot() && !isBoost(expression);
+  }
+
+  private static boolean isBoost(Expression expression) {
+    return isOperator(expression, Operator.BOOST);
+  }
+
+  private static boolean isOperator(Expression expression, Operator operator) {
+    return expression.isCompound() && expression.getValue().getLeft().operator == operator;
+  }
+
+  private static List<Expression> operandsOf(Expression expression) {
+    return expression.getValue().getLeft().operands;
+  }
+
+  private static boolean isFalse(Expression expression) {
+    if (isBoost(expression)) {
+      return operandsOf(expression).forAll(ExpressionNormalizer::isFalse);
+    }
+    return expression.isTerms() && expression.getValue().get().isEmpty();
+  }
+
+  private static boolean isTrue(Expression expression) {
+    if (expression.isNot()) {
+      return operandsOf(expression).forAll(ExpressionNormalizer::isFalse);
+    }
+    return isOperator(expression, Operator.AND) && operandsOf(expression).isEmpty();
+  }
+
+  /**
+   * Structural order that ignores term ids: term lists first, then compound expressions by
+   * operator and operands.
+   */
+  static int compare(Expression a, Expression b) {
+    // Remaining operands of each pair of compound expressions being compared
+    final ArrayDeque<List<Expression>> left = new ArrayDeque<>();
+    final ArrayDeque<List<Expression>> right = new ArrayDeque<>();
+    left.push(List.of(a));
+    right.push(List.of(b));
+    while (!left.isEmpty()) {
+      final List<Expression> xs = left.pop();
+      final List<Expression> ys = right.pop();
+      if (xs.isEmpty() || ys.isEmpty()) {
+        final int cmp = Boolean.compare(!xs.isEmpty(), !ys.isEmpty());
+        if (cmp != 0) {
+          return cmp;
+        }
+        continue;
+      }
+      left.push(xs.tail());
+      right.push(ys.tail());
+
+      final Expression x = xs.head();
+      final Expression y = ys.head();
+      if (x == y) {
+        continue;
+      } else if (x.isTerms() != y.isTerms()) {
+        return x.isTerms() ? -1 : 1;
+      } else if (x.isTerms()) {
+        final int cmp = compareLists(x.getValue().get(), y.getValue().get(), VALUE_ORDER);
+        if (cmp != 0) {
+          return cmp;
+        }
+        continue;
+      }
+
+      final int cmp = Integer.compare(
+          x.getValue().getLeft().operator.ordinal(),
+          y.getValue().getLeft().operator.ordinal());
+      if (cmp != 0) {
+        return cmp;
+      }
+      left.push(operandsOf(x));
+      right.push(operandsOf(y));
+    }
+    return 0;
+  }
+
+  private static <T> int compareLists(List<T> a, List<T> b, Comparator<T> comparator) {
+    while (!a.isEmpty() && !b.isEmpty()) {
+      final int cmp = comparator.compare(a.head(), b.head());
+      if (cmp != 0) {
+        return cmp;
+      }
+      a = a.tail();
+      b = b.tail();
+    }
+    return Boolean.compare(!a.isEmpty(), !b.isEmpty());
+  }
+}
@@ -0,0 +1,23 @@
+package com.github.audunhalland.parceq;
+
+/**
+ * Callbacks for {@link Expression#transform(ExpressionTransformer)}, which rebuilds a tree
+ * bottom up without recursion.
+ */
+public interface ExpressionTransformer {
+  /**
+   * Replace an expression before its operands are transformed. The operands of the returned
+   * expression are the ones transformed next.
+   */
+  default Expression before(Expression expression) {
+    return expression;
+  }
+
+  /**
+   * Replace an expression after its operands are transformed. A compound expression is rebuilt
+   * with the transformed operands first, unless all of them are unchanged.
+   */
+  default Expression after(Expression expression) {
+    return expression;
+  }
+}
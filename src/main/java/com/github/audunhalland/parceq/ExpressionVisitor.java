@@ -0,0 +1,20 @@
+package com.github.audunhalland.parceq;
+
+/**
+ * Callbacks for {@link Expression#walk(ExpressionVisitor)}, which visits a tree depth first
+ * without recursion.
+ */
+public interface ExpressionVisitor {
+  /**
+   * Called before the operands of the expression. Return false to skip the operands.
+   */
+  default boolean enter(Expression expression) {
+    return true;
+  }
+
+  /**
+   * Called after the operands of the expression, also when they were skipped.
+   */
+  default void leave(Expression expression) {
+  }
+}
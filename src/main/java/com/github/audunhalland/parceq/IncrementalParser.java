@@ -0,0 +1,123 @@
+package com.github.audunhalland.parceq;
+
+import io.vavr.control.Try;
+
+/**
+ * Parses a query again after small edits, as when the query is typed one key at a time.
+ *
+ * <p>The tokens that end before the first changed character are kept, and lexing goes on from
+ * the end of the last of them. A word that is the same token as before, at the same position
+ * and with the same field, keeps its term, so term ids only change for words that changed.
+ * Results are interned with the previous ones, so unchanged subtrees are the same objects.
+ *
+ * <p>All results share the term allocator of the parser. A parser must only be used by one
+ * thread at a time.
+ */
+public class IncrementalParser {
+  private static final int MAX_INTERNED = 1 << 12;
+
+  private final ParseLimits limits;
+  private final Lexer lexer = new Lexer();
+  private final TokenBuffer.Cursor cursor = new TokenBuffer.Cursor();
+  private final Parser.TopDownOperatorPrecedenceParser parser =
+      new Parser.TopDownOperatorPrecedenceParser();
+  private final ExpressionInterner interner = new ExpressionInterner();
+  private final TermAllocator termAllocator = new TermAllocator();
+
+  private String query = "";
+  private TokenBuffer tokens = new TokenBuffer();
+  private TokenBuffer nextTokens = new TokenBuffer();
+  private Term[] terms = new Term[0];
+
+  public IncrementalParser() {
+    this(ParseLimits.UNLIMITED);
+  }
+
+  public IncrementalParser(ParseLimits limits) {
+    this.limits = limits;
+  }
+
+  /**
+   * The query of the last successful parse.
+   */
+  public String getQuery() {
+    return query;
+  }
+
+  public Try<ParceQ> append(CharSequence text) {
+    return parse(query + text);
+  }
+
+  public Try<ParceQ> deleteAtEnd(int count) {
+    if (count < 0 || count > query.length()) {
+      throw new IllegalArgumentException(
+          "Can not delete " + count + " chars of a query of length " + query.length());
+    }
+    return parse(query.substring(0, query.length() - count));
+  }
+
+  /**
+   * Parse a new version of the query, re-using what is unchanged since the previous one.
+   */
+  public Try<ParceQ> parse(String query) {
+    final int editPosition = commonPrefixLength(this.query, query);
+    int count = 0;
+    while (count < tokens.size() - 1 && tokens.end(count) < editPosition) {
+      count++;
+    }
+    final int kept = count;
+
+    nextTokens.reset(query, tokens, kept);
+    final Try<ParceQ> result = Try.of(() -> {
+      lexer.tokenize(query, kept == 0 ? 0 : tokens.end(kept - 1), nextTokens, limits);
+      final Term[] nextTerms = new Term[nextTokens.size()];
+      final Expression expression = parser
+          .reset(termAllocator, cursor.reset(nextTokens), limits)
+          .reuseTerms(reusableTerms(kept), nextTerms)
+          .parse();
+      terms = nextTerms;
+      return new ParceQ(termAllocator, intern(expression), limits);
+    });
+    parser.reset(null, null);
+
+    if (result.isSuccess()) {
+      final TokenBuffer previous = tokens;
+      tokens = nextTokens;
+      nextTokens = previous;
+      this.query = query;
+    }
+    nextTokens.reset("");
+    return result;
+  }
+
+  // Terms of the previous parse, for the words that are the same tokens in the next one
+  private Term[] reusableTerms(int kept) {
+    final Term[] reusable = new Term[nextTokens.size()];
+    final int count = Math.min(reusable.length, terms.length);
+    for (int i = 0; i < count; i++) {
+      if (i < kept || (nextTokens.type(i) == Token.Type.WORD
+          && tokens.type(i) == Token.Type.WORD
+          && nextTokens.valueEquals(i, tokens, i))) {
+        reusable[i] = terms[i];
+      }
+    }
+    return reusable;
+  }
+
+  private Expression intern(Expression expression) {
+    if (interner.size() > MAX_INTERNED) {
+      interner.clear();
+    }
+    return interner.intern(expression);
+  }
+
+  private static int commonPrefixLength(String a, String b) {
+    final int length = Math.min(a.length(), b.length());
+    for (int i = 0; i < length; i++) {
+      if (a.charAt(i) != b.charAt(i)) {
+        return i;
+      }
+    }
+    return length;
+  }
+}
@@ -1,72 +1,292 @@
 package com.github.audunhalland.parceq;
 
+import com.github.audunhalland.parceq.ParseLimitExceededException.Limit;
 import com.github.audunhalland.parceq.Token.Type;
 import io.vavr.collection.Stream;
 import io.vavr.control.Try;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 
+/**
+ * Splits a query into tokens. A word directly followed by an unescaped {@code :} and more
+ * input is a field name, as in {@code title:foo}, {@code title:"a b"} or {@code title:(a b)}.
+ */
 public class Lexer {
 
+  /*
+   * The lexical grammar is a state machine, with a transition for each state and character
+   * class. Both lexers drive the same table, and only differ in how they build values. A new
+   * operator character needs a class and a row of transitions, and does not slow down the
+   * characters of words.
+   */
+
+  // Character classes. Characters outside ASCII are all PLAIN.
+  private static final int PLAIN = 0;
+  private static final int SPACE = 1;
+  private static final int BACKSLASH = 2;
+  private static final int QUOTE = 3;
+  private static final int PAREN = 4;
+  private static final int SIGN = 5;
+  private static final int COLON = 6;
+  private static final int CLASS_COUNT = 7;
+
+  // States
+  private static final int START = 0;
+  private static final int START_ESCAPED = 1;
+  private static final int WORD = 2;
+  private static final int WORD_ESCAPED = 3;
+  private static final int QUOTED = 4;
+  private static final int QUOTED_ESCAPED = 5;
+  private static final int STATE_COUNT = 6;
+
+  // Actions, done before moving to the next state
+  private static final int SKIP = 0;
+  private static final int ESCAPE = 1;
+  // Appends the pending backslash, and escapes the next character instead
+  private static final int ESCAPE_AGAIN = 2;
+  private static final int BEGIN = 3;
+  // Begins a value with the pending backslash and the character
+  private static final int BEGIN_ESCAPED = 4;
+  private static final int BEGIN_QUOTED = 5;
+  private static final int APPEND = 6;
+  // Appends the pending backslash and the character
+  private static final int APPEND_ESCAPED = 7;
+  private static final int SINGLE = 8;
+  private static final int END_WORD = 9;
+  // Ends the word before the character, which is lexed again from START
+  private static final int END_WORD_BEFORE = 10;
+  private static final int END_QUOTED = 11;
+  // Ends a field name if more input follows the colon, otherwise appends it to the word
+  private static final int FIELD_OR_APPEND = 12;
+
+  private static final int ACTION_SHIFT = 3;
+  private static final int STATE_MASK = (1 << ACTION_SHIFT) - 1;
+
+  private static final byte[] ASCII_CLASSES = new byte[128];
+  private static final byte[] TRANSITIONS = new byte[STATE_COUNT * CLASS_COUNT];
+  // The transitions of each ASCII character, indexed by state << 7 | c
+  private static final byte[] ASCII_TRANSITIONS = new byte[STATE_COUNT << 7];
+
+  static {
+    ASCII_CLASSES[' '] = SPACE;
+    ASCII_CLASSES['\\'] = BACKSLASH;
+    ASCII_CLASSES['"'] = QUOTE;
+    ASCII_CLASSES['('] = PAREN;
+    ASCII_CLASSES[')'] = PAREN;
+    ASCII_CLASSES['+'] = SIGN;
+    ASCII_CLASSES['-'] = SIGN;
+    ASCII_CLASSES[':'] = COLON;
+
+    // Between tokens. A word can not start with a field separator.
+    on(START, SPACE, SKIP, START);
+    on(START, BACKSLASH, ESCAPE, START_ESCAPED);
+    on(START, QUOTE, BEGIN_QUOTED, QUOTED);
+    on(START, PAREN, SINGLE, START);
+    on(START, SIGN, SINGLE, START);
+    on(START, PLAIN, BEGIN, WORD);
+    on(START, COLON, BEGIN, WORD);
+
+    // A backslash between tokens escapes the next character that is not a space
+    on(START_ESCAPED, SPACE, SKIP, START_ESCAPED);
+    on(START_ESCAPED, BACKSLASH, BEGIN_ESCAPED, WORD);
+    on(START_ESCAPED, QUOTE, BEGIN, WORD);
+    on(START_ESCAPED, PAREN, BEGIN, WORD);
+    on(START_ESCAPED, SIGN, BEGIN, WORD);
+    on(START_ESCAPED, PLAIN, BEGIN_ESCAPED, WORD);
+    on(START_ESCAPED, COLON, BEGIN, WORD);
+
+    on(WORD, SPACE, END_WORD, START);
+    on(WORD, BACKSLASH, ESCAPE, WORD_ESCAPED);
+    on(WORD, QUOTE, APPEND, WORD);
+    on(WORD, PAREN, END_WORD_BEFORE, START);
+    on(WORD, SIGN, APPEND, WORD);
+    on(WORD, PLAIN, APPEND, WORD);
+    on(WORD, COLON, FIELD_OR_APPEND, WORD);
+
+    // In a word, a backslash only escapes space, parentheses and colon
+    on(WORD_ESCAPED, SPACE, APPEND, WORD);
+    on(WORD_ESCAPED, BACKSLASH, ESCAPE_AGAIN, WORD_ESCAPED);
+    on(WORD_ESCAPED, QUOTE, APPEND_ESCAPED, WORD);
+    on(WORD_ESCAPED, PAREN, APPEND, WORD);
+    on(WORD_ESCAPED, SIGN, APPEND_ESCAPED, WORD);
+    on(WORD_ESCAPED, PLAIN, APPEND_ESCAPED, WORD);
+    on(WORD_ESCAPED, COLON, APPEND, WORD);
+
+    on(QUOTED, SPACE, APPEND, QUOTED);
+    on(QUOTED, BACKSLASH, ESCAPE, QUOTED_ESCAPED);
+    on(QUOTED, QUOTE, END_QUOTED, START);
+    on(QUOTED, PAREN, APPEND, QUOTED);
+    on(QUOTED, SIGN, APPEND, QUOTED);
+    on(QUOTED, PLAIN, APPEND, QUOTED);
+    on(QUOTED, COLON, APPEND, QUOTED);
+
+    // In a quoted phrase, a backslash only escapes a quote
+    on(QUOTED_ESCAPED, SPACE, APPEND_ESCAPED, QUOTED);
+    on(QUOTED_ESCAPED, BACKSLASH, ESCAPE_AGAIN, QUOTED_ESCAPED);
+    on(QUOTED_ESCAPED, QUOTE, APPEND, QUOTED);
+    on(QUOTED_ESCAPED, PAREN, APPEND_ESCAPED, QUOTED);
+    on(QUOTED_ESCAPED, SIGN, APPEND_ESCAPED, QUOTED);
+    on(QUOTED_ESCAPED, PLAIN, APPEND_ESCAPED, QUOTED);
+    on(QUOTED_ESCAPED, COLON, APPEND_ESCAPED, QUOTED);
+
+    for (int state = 0; state < STATE_COUNT; state++) {
+      for (int c = 0; c < 128; c++) {
+        ASCII_TRANSITIONS[state << 7 | c] = TRANSITIONS[state * CLASS_COUNT + ASCII_CLASSES[c]];
+      }
+    }
+  }
+
+  private static void on(int state, int charClass, int action, int next) {
+    TRANSITIONS[state * CLASS_COUNT + charClass] = (byte) (action << ACTION_SHIFT | next);
+  }
+
+  private static int transition(int state, char c) {
+    return c < 128 ? ASCII_TRANSITIONS[state << 7 | c] : TRANSITIONS[state * CLASS_COUNT + PLAIN];
+  }
+
+  /**
+   * Lazy stream of tokens. The reader is read in chunks as the stream is evaluated, and an
+   * {@link IOException} ends the stream with a failure.
+   */
   public Stream<Try<Token>> tokenStream(Reader reader) {
-    final StringBuilder builder = new StringBuilder();
+    return tokenStream(new CharReader(reader));
+  }
+
+  /**
+   * Reads a reader in chunks, which grow from a small size so that short queries only need a
+   * small buffer. One character of lookahead decides whether a colon ends a field name, so the
+   * last character read can be unread.
+   */
+  private static final class CharReader {
+    private static final int INITIAL_CHUNK = 16;
+    private static final int MAX_CHUNK = 8192;
 
-    boolean escaped = false;
+    private final Reader reader;
+    private char[] buffer = new char[INITIAL_CHUNK];
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    CharReader(Reader reader) {
+      this.reader = reader;
+    }
+
+    int read() throws IOException {
+      if (position == limit) {
+        if (eof || !fill()) {
+          return -1;
+        }
+      }
+      return buffer[position++];
+    }
+
+    // Only valid directly after a read that did not return -1
+    void unread() {
+      position--;
+    }
+
+    private boolean fill() throws IOException {
+      if (limit == buffer.length && buffer.length < MAX_CHUNK) {
+        buffer = new char[buffer.length * 2];
+      }
+      int read;
+      do {
+        read = reader.read(buffer, 0, buffer.length);
+      } while (read == 0);
+      if (read < 0) {
+        eof = true;
+        return false;
+      }
+      position = 0;
+      limit = read;
+      return true;
+    }
+  }
+
+  private Stream<Try<Token>> tokenStream(CharReader reader) {
+    final StringBuilder builder = new StringBuilder();
+    int state = START;
 
     while (true) {
-      final int codepoint;
+      final int c;
       try {
-        codepoint = reader.read();
+        c = reader.read();
       } catch (IOException e) {
         return Stream.of(Try.failure(e));
       }
 
-      switch (codepoint) {
-        case -1:
-          // white space only - not considered a token
-          return eof();
-        case '\\':
-          if (escaped) {
-            builder.appendCodePoint('\\');
-            builder.appendCodePoint('\\');
-            return unquoted(builder, reader);
-          }
-          escaped = true;
-          break;
-        case '(':
-        case ')':
-        case '-':
-        case '+':
-          if (escaped) {
-            builder.appendCodePoint(codepoint);
-            return unquoted(builder, reader);
-          } else {
-            return singleChar(codepoint, reader);
+      if (c < 0) {
+        switch (state) {
+          case WORD_ESCAPED:
+            builder.append('\\');
+            // fall through
+          case WORD:
+            return eof(unquoted(builder.toString()));
+          case QUOTED:
+          case QUOTED_ESCAPED:
+            // Tolerate missing closing quote, but EOF following an opening quote is not a word
+            return builder.length() > 0
+                ? eof(Try.success(new Token(Type.WORD, builder.toString())))
+                : eof();
+          default:
+            // white space only - not considered a token
+            return eof();
+        }
+      }
+
+      final int transition = transition(state, (char) c);
+      state = transition & STATE_MASK;
+
+      switch (transition >>> ACTION_SHIFT) {
+        case ESCAPE_AGAIN:
+          builder.append('\\');
+          break;
+        case BEGIN:
+        case APPEND:
+          builder.append((char) c);
+          break;
+        case BEGIN_ESCAPED:
+        case APPEND_ESCAPED:
+          builder.append('\\').append((char) c);
+          break;
+        case SINGLE:
+          return singleChar(c, reader);
+        case END_WORD:
+          return yield(unquoted(builder.toString()), reader);
+        case END_WORD_BEFORE:
+          reader.unread();
+          return yield(unquoted(builder.toString()), reader);
+        case END_QUOTED:
+          return yield(new Token(Type.WORD, builder.toString()), reader);
+        case FIELD_OR_APPEND:
+          final int next;
+          try {
+            next = reader.read();
+            if (next >= 0) {
+              reader.unread();
+            }
+          } catch (IOException e) {
+            return Stream.of(Try.failure(e));
           }
-        case '"':
-          if (escaped) {
-            builder.appendCodePoint(codepoint);
-            return unquoted(builder, reader);
-          } else {
-            return quoted(reader);
+          if (next >= 0 && next != ' ') {
+            return yield(new Token(Type.FIELD, builder.toString()), reader);
           }
-        case ' ':
+          builder.append((char) c);
           break;
         default:
-          if (escaped) {
-            builder.appendCodePoint('\\');
-          }
-          builder.appendCodePoint(codepoint);
-          return unquoted(builder, reader);
+          // SKIP, ESCAPE and BEGIN_QUOTED only change the state
+          break;
       }
     }
   }
 
-  private Stream<Try<Token>> yield(Try<Token> token, Reader reader) {
+  private Stream<Try<Token>> yield(Try<Token> token, CharReader reader) {
     return Stream.cons(token, () -> tokenStream(reader));
   }
 
-  private Stream<Try<Token>> yield(Token token, Reader reader) {
+  private Stream<Try<Token>> yield(Token token, CharReader reader) {
     return yield(Try.success(token), reader);
   }
 
@@ -78,7 +298,7 @@ public class Lexer {
     return Stream.of(token, Try.success(new Token(Type.EOF, "")));
   }
 
-  private Stream<Try<Token>> singleChar(int codepoint, Reader reader) {
+  private Stream<Try<Token>> singleChar(int codepoint, CharReader reader) {
     switch (codepoint) {
       case '(':
         return yield(new Token(Token.Type.LEFT_PAREN, "("), reader);
@@ -93,58 +313,6 @@ public class Lexer {
     }
   }
 
-  private Stream<Try<Token>> unquoted(StringBuilder builder, Reader reader) {
-    boolean escaped = false;
-
-    while (true) {
-      final int codepoint;
-      try {
-        codepoint = reader.read();
-      } catch (IOException e) {
-        return Stream.of(Try.failure(e));
-      }
-
-      switch (codepoint) {
-        case -1:
-          if (escaped) {
-            builder.appendCodePoint('\\');
-          }
-          return eof(unquoted(builder.toString()));
-        case '\\':
-          if (escaped) {
-            builder.appendCodePoint('\\');
-          }
-          escaped = true;
-          break;
-        case '(':
-        case ')':
-          if (escaped) {
-            builder.appendCodePoint(codepoint);
-            escaped = false;
-          } else {
-            return Stream.cons(unquoted(builder.toString()),
-                () -> singleChar(codepoint, reader));
-          }
-          break;
-        case ' ':
-          if (escaped) {
-            builder.appendCodePoint(codepoint);
-            escaped = false;
-          } else {
-            return yield(unquoted(builder.toString()), reader);
-          }
-          break;
-        default:
-          if (escaped) {
-            builder.appendCodePoint('\\');
-            escaped = false;
-          }
-          builder.appendCodePoint(codepoint);
-          break;
-      }
-    }
-  }
-
   private Try<Token> unquoted(String word) {
     switch (word) {
       case "AND":
@@ -158,47 +326,196 @@ public class Lexer {
     }
   }
 
-  private Stream<Try<Token>> quoted(Reader reader) {
-    final StringBuilder builder = new StringBuilder();
-    boolean escaped = false;
-    while (true) {
-      final int codepoint;
-      try {
-        codepoint = reader.read();
-      } catch (IOException e) {
-        return Stream.of(Try.failure(e));
+  public TokenBuffer tokenize(CharSequence input) {
+    return tokenize(input, new TokenBuffer());
+  }
+
+  public TokenBuffer tokenize(char[] input) {
+    return tokenize(CharBuffer.wrap(input), new TokenBuffer());
+  }
+
+  /**
+   * Tokenize the remaining UTF-8 bytes of the buffer, without decoding them and without moving
+   * its position. Token offsets are in bytes.
+   */
+  public TokenBuffer tokenize(ByteBuffer input) {
+    return tokenize(input, new TokenBuffer(), ParseLimits.UNLIMITED);
+  }
+
+  // The input length limit is in bytes
+  public TokenBuffer tokenize(ByteBuffer input, TokenBuffer tokens, ParseLimits limits) {
+    return tokenize(Utf8Chars.of(input), tokens, limits);
+  }
+
+  public TokenBuffer tokenize(CharSequence input, TokenBuffer tokens) {
+    return tokenize(input, tokens, ParseLimits.UNLIMITED);
+  }
+
+  // Eager counterpart of tokenStream, producing the same tokens in a single pass over the input
+  public TokenBuffer tokenize(CharSequence input, TokenBuffer tokens, ParseLimits limits) {
+    tokens.reset(input);
+    return tokenize(input, 0, tokens, limits);
+  }
+
+  /**
+   * Continue lexing at the end of the last token in the buffer, which must be a position where
+   * the lexer went on after a token, or 0.
+   */
+  TokenBuffer tokenize(CharSequence input, int position, TokenBuffer tokens, ParseLimits limits) {
+    final int length = input.length();
+    limits.check(Limit.INPUT_LENGTH, length);
+
+    int state = START;
+    int escapePosition = 0;
+    int words = 0;
+    for (int i = 0; i < tokens.size(); i++) {
+      if (tokens.type(i) == Type.WORD) {
+        words++;
       }
+    }
 
-      switch (codepoint) {
-        case -1:
-          // Tolerate missing closing parenthesis at end of string
-          if (builder.length() > 0) {
-            return eof(Try.success(new Token(Type.WORD, builder.toString())));
+    while (position < length) {
+      final char c = input.charAt(position);
+      final int transition = transition(state, c);
+      final int size = tokens.size();
+      state = transition & STATE_MASK;
+
+      switch (transition >>> ACTION_SHIFT) {
+        case SKIP:
+          position++;
+          break;
+        case ESCAPE:
+          escapePosition = position++;
+          break;
+        case ESCAPE_AGAIN:
+          tokens.append('\\', escapePosition);
+          escapePosition = position++;
+          break;
+        case BEGIN:
+          tokens.beginValue(position);
+          position = appendRun(input, position, state, tokens);
+          break;
+        case BEGIN_ESCAPED:
+          tokens.beginValue(escapePosition);
+          tokens.append('\\', escapePosition);
+          position = appendRun(input, position, state, tokens);
+          break;
+        case BEGIN_QUOTED:
+          tokens.beginValue(++position);
+          break;
+        case APPEND:
+          position = appendRun(input, position, state, tokens);
+          break;
+        case APPEND_ESCAPED:
+          tokens.append('\\', escapePosition);
+          position = appendRun(input, position, state, tokens);
+          break;
+        case SINGLE:
+          tokens.add(singleCharType(c), position++, 1);
+          break;
+        case END_WORD:
+          addUnquoted(tokens);
+          position++;
+          break;
+        case END_WORD_BEFORE:
+          addUnquoted(tokens);
+          break;
+        case END_QUOTED:
+          tokens.addValue(Type.WORD);
+          position++;
+          break;
+        case FIELD_OR_APPEND:
+          if (position + 1 < length && input.charAt(position + 1) != ' ') {
+            tokens.addValue(Type.FIELD);
+            state = START;
           } else {
-            // EOF following an opening quote - does not count as word
-            return eof();
-          }
-        case '\\':
-          if (escaped) {
-            builder.appendCodePoint('\\');
+            tokens.append(c, position);
           }
-          escaped = true;
+          position++;
           break;
-        case '"':
-          if (!escaped) {
-            return yield(new Token(Type.WORD, builder.toString()), reader);
-          }
-          escaped = false;
-          // fall through
         default:
-          // escape only works on quote
-          if (escaped) {
-            builder.appendCodePoint('\\');
-          }
-          escaped = false;
-          builder.appendCodePoint(codepoint);
-          break;
+          throw new IllegalStateException("Unknown lexer action");
+      }
+
+      // Each step adds at most one token
+      if (tokens.size() > size) {
+        words = endToken(tokens, size, position, words, limits);
       }
     }
+
+    final int size = tokens.size();
+    switch (state) {
+      case WORD_ESCAPED:
+        tokens.append('\\', escapePosition);
+        // fall through
+      case WORD:
+        addUnquoted(tokens);
+        break;
+      case QUOTED:
+      case QUOTED_ESCAPED:
+        // Tolerate missing closing quote, but EOF following an opening quote is not a word
+        if (tokens.valueLength() > 0) {
+          tokens.addValue(Type.WORD);
+        }
+        break;
+      default:
+        break;
+    }
+    if (tokens.size() > size) {
+      endToken(tokens, size, length, words, limits);
+    }
+
+    tokens.add(Type.EOF, length, 0);
+    tokens.setEnd(tokens.size() - 1, length);
+    return tokens;
+  }
+
+  /**
+   * Appends the character at the position, and the run of characters after it that are
+   * appended without leaving the state, which is most of a word. Returns the position after
+   * the run.
+   */
+  private static int appendRun(CharSequence input, int position, int state, TokenBuffer tokens) {
+    final int length = input.length();
+    final int append = APPEND << ACTION_SHIFT | state;
+    int end = position + 1;
+    while (end < length && transition(state, input.charAt(end)) == append) {
+      end++;
+    }
+    tokens.appendRange(position, end);
+    return end;
+  }
+
+  // Returns the number of words so far
+  private static int endToken(TokenBuffer tokens, int index, int end, int words,
+      ParseLimits limits) {
+    tokens.setEnd(index, end);
+    if (tokens.type(index) == Type.WORD) {
+      limits.check(Limit.TERM_COUNT, ++words);
+    }
+    return words;
+  }
+
+  private static Type singleCharType(char c) {
+    switch (c) {
+      case '(':
+        return Type.LEFT_PAREN;
+      case ')':
+        return Type.RIGHT_PAREN;
+      case '-':
+        return Type.PREFIX_ANDNOT;
+      default:
+        return Type.PREFIX_AND;
+    }
+  }
+
+  private static void addUnquoted(TokenBuffer tokens) {
+    tokens.addValue(Type.WORD);
+    final int index = tokens.size() - 1;
+    if (tokens.valueEquals(index, "AND") || tokens.valueEquals(index, "&&")) {
+      tokens.setType(index, Type.INFIX_AND);
+    } else if (tokens.valueEquals(index, "OR") || tokens.valueEquals(index, "||")) {
+      tokens.setType(index, Type.INFIX_OR);
+    }
   }
 }
@@ -1,20 +1,34 @@
 package com.github.audunhalland.parceq;
 
+import com.github.audunhalland.parceq.ParseLimitExceededException.Limit;
 import io.vavr.collection.Iterator;
 import io.vavr.collection.List;
 import io.vavr.collection.Stream;
 import io.vavr.control.Try;
+import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 public class ParceQ {
+  private static final ContextPool CONTEXT_POOL = new ContextPool(
+      Runtime.getRuntime().availableProcessors() * 2);
+
   private final TermAllocator termAllocator;
   private final Expression expr;
+  private final ParseLimits limits;
 
   ParceQ(TermAllocator termAllocator, Expression expr) {
+    this(termAllocator, expr, ParseLimits.UNLIMITED);
+  }
+
+  ParceQ(TermAllocator termAllocator, Expression expr, ParseLimits limits) {
     this.termAllocator = termAllocator;
     this.expr = expr;
+    this.limits = limits;
   }
 
   public static Try<ParceQ> parse(Reader reader) {
@@ -27,24 +41,266 @@ public class ParceQ {
     });
   }
 
+  public static Try<ParceQ> parse(String query) {
+    return parse(query, ParseLimits.UNLIMITED);
+  }
+
+  /**
+   * Parse within the given limits, failing with {@link ParseLimitExceededException} as soon as
+   * one is exceeded. The limits also apply to {@link #termShingles} of the result.
+   */
+  public static Try<ParceQ> parse(String query, ParseLimits limits) {
+    final Context context = CONTEXT_POOL.acquire();
+    try {
+      return context.parse(query, limits);
+    } finally {
+      CONTEXT_POOL.release(context);
+    }
+  }
+
+  public static Try<ParceQ> parse(Reader reader, ParseLimits limits) {
+    final Context context = CONTEXT_POOL.acquire();
+    try {
+      return context.parse(reader, limits);
+    } finally {
+      CONTEXT_POOL.release(context);
+    }
+  }
+
+  /**
+   * Parse the remaining UTF-8 bytes of a heap or direct buffer, without moving its position.
+   * Terms keep their bytes and only decode them when their value is asked for, and malformed
+   * input is decoded with replacement characters. The input length limit is in bytes.
+   */
+  public static Try<ParceQ> parse(ByteBuffer query) {
+    return parse(query, ParseLimits.UNLIMITED);
+  }
+
+  public static Try<ParceQ> parse(ByteBuffer query, ParseLimits limits) {
+    final Context context = CONTEXT_POOL.acquire();
+    try {
+      return context.parse(query, limits);
+    } finally {
+      CONTEXT_POOL.release(context);
+    }
+  }
+
   public Expression getExpression() {
     return expr;
   }
 
+  public TermAllocator getTermAllocator() {
+    return termAllocator;
+  }
+
+  /**
+   * Replace each list of terms with its shingles up to the given order. Only adjacent terms with
+   * the same field are shingled together, and the shingles get that field.
+   *
+   * @throws ParseLimitExceededException if this would create more terms than the
+   *     shingle expansion limit of the parse
+   */
   public ParceQ termShingles(int order, CharSequence separator) {
+    final ShingleBuilder builder = new ShingleBuilder(termAllocator, separator);
+    final long[] expansion = new long[1];
     return new ParceQ(termAllocator,
-        expr.flatMapTerms(terms ->
-            Expression.of(
-                Util.<Term>shingler(order)
-                    .apply(terms)
-                    .map(shingledTerms ->
-                        shingledTerms.length() == 1
-                            ? shingledTerms.get(0)
-                            : termAllocator.createDerivedTerm(
-                                shingledTerms.map(Term::getValue)
-                                    .collect(Collectors.joining(separator)),
-                              shingledTerms))
-                    .toList())));
+        expr.flatMapTerms(terms -> {
+          final Term[] roots = terms.toJavaArray(Term.class);
+          expansion[0] += builder.reset(roots, order);
+          limits.check(Limit.SHINGLE_EXPANSION, expansion[0]);
+
+          return Expression.of(List.of(builder.build()));
+        }),
+        limits);
+  }
+
+  /**
+   * Creates shingle terms in the order of {@link Util#forEachShingle}. Each window extends the
+   * previous one by a term, or starts over with a single term, so the value of a shingle is
+   * appended to the value of the previous one in a shared buffer.
+   *
+   * <p>Roots are shingled in runs of the same field.
+   */
+  private static class ShingleBuilder implements Util.ShingleConsumer {
+    private final TermAllocator termAllocator;
+    private final CharSequence separator;
+    private final StringBuilder value = new StringBuilder();
+    private int order;
+    private Term[] roots;
+    private int[] fieldIds = new int[16];
+    private int capacity;
+    private Term[] shingles;
+    private int count;
+    private int runStart;
+
+    ShingleBuilder(TermAllocator termAllocator, CharSequence separator) {
+      this.termAllocator = termAllocator;
+      this.separator = separator;
+    }
+
+    // Returns the number of shingles of the roots
+    int reset(Term[] roots, int order) {
+      this.order = order;
+      this.roots = roots;
+      if (fieldIds.length < roots.length) {
+        fieldIds = new int[Math.max(roots.length, fieldIds.length * 2)];
+      }
+      for (int i = 0; i < roots.length; i++) {
+        fieldIds[i] = termAllocator.fieldId(roots[i]);
+      }
+      capacity = 0;
+      for (int start = 0; start < roots.length; start = runEnd(start)) {
+        capacity += Util.shingleCount(runEnd(start) - start, order);
+      }
+      return capacity;
+    }
+
+    Term[] build() {
+      shingles = new Term[capacity];
+      count = 0;
+      for (runStart = 0; runStart < roots.length; runStart = runEnd(runStart)) {
+        Util.forEachShingle(runEnd(runStart) - runStart, order, this);
+      }
+      return shingles;
+    }
+
+    private int runEnd(int start) {
+      int end = start + 1;
+      while (end < roots.length && fieldIds[end] == fieldIds[start]) {
+        end++;
+      }
+      return end;
+    }
+
+    @Override
+    public void accept(int windowStart, int windowEnd) {
+      final int start = runStart + windowStart;
+      final int end = runStart + windowEnd;
+      if (end - start == 1) {
+        value.setLength(0);
+        value.append(roots[start].getValue());
+        shingles[count++] = roots[start];
+        return;
+      }
+
+      value.append(separator).append(roots[end - 1].getValue());
+      List<Term> derivees = List.empty();
+      for (int i = end - 1; i >= start; i--) {
+        derivees = derivees.prepend(roots[i]);
+      }
+      shingles[count++] = termAllocator.createDerivedTerm(value, derivees);
+    }
+  }
+
+  /**
+   * Parsing session that keeps its lexer, token and parser buffers between parses.
+   *
+   * <p>A context must only be used by one thread at a time. {@link ParceQ#parse(String)} borrows
+   * contexts from a shared pool, which works the same for platform and virtual threads.
+   */
+  public static class Context {
+    private static final int MAX_RETAINED_CHARS = 1 << 16;
+
+    private final Lexer lexer = new Lexer();
+    private final TokenBuffer tokens = new TokenBuffer();
+    private final TokenBuffer.Cursor cursor = new TokenBuffer.Cursor();
+    private final Parser.TopDownOperatorPrecedenceParser parser =
+        new Parser.TopDownOperatorPrecedenceParser();
+    private char[] chars = new char[256];
+
+    public Try<ParceQ> parse(CharSequence query) {
+      return parse(query, ParseLimits.UNLIMITED);
+    }
+
+    public Try<ParceQ> parse(ByteBuffer query) {
+      return parse(query, ParseLimits.UNLIMITED);
+    }
+
+    public Try<ParceQ> parse(ByteBuffer query, ParseLimits limits) {
+      return parse(Utf8Chars.of(query), limits);
+    }
+
+    public Try<ParceQ> parse(CharSequence query, ParseLimits limits) {
+      // The allocator is owned by the result, so it is the one thing not reused
+      final TermAllocator termAllocator = new TermAllocator();
+      try {
+        return Try.of(() -> {
+          lexer.tokenize(query, tokens, limits);
+          return new ParceQ(termAllocator,
+              parser.reset(termAllocator, cursor.reset(tokens), limits).parse(),
+              limits);
+        });
+      } finally {
+        tokens.reset("");
+        parser.reset(null, null);
+      }
+    }
+
+    public Try<ParceQ> parse(Reader reader) {
+      return parse(reader, ParseLimits.UNLIMITED);
+    }
+
+    // Stops reading as soon as the input is too long
+    public Try<ParceQ> parse(Reader reader, ParseLimits limits) {
+      int length = 0;
+      try {
+        while (true) {
+          if (length == chars.length) {
+            chars = Arrays.copyOf(chars, chars.length * 2);
+          }
+          final int read = reader.read(chars, length, chars.length - length);
+          if (read < 0) {
+            break;
+          }
+          length += read;
+          if (length > limits.getMaxInputLength()) {
+            return Try.failure(new ParseLimitExceededException(
+                Limit.INPUT_LENGTH, limits.getMaxInputLength()));
+          }
+        }
+        return parse(CharBuffer.wrap(chars, 0, length), limits);
+      } catch (IOException e) {
+        return Try.failure(e);
+      } finally {
+        if (chars.length > MAX_RETAINED_CHARS) {
+          chars = new char[256];
+        }
+      }
+    }
+  }
+
+  static class ContextPool {
+    private final AtomicReferenceArray<Context> contexts;
+    private final int mask;
+
+    ContextPool(int minimumSize) {
+      final int size = Integer.highestOneBit(Math.max(1, minimumSize - 1)) << 1;
+      contexts = new AtomicReferenceArray<>(size);
+      mask = size - 1;
+    }
+
+    Context acquire() {
+      final int start = slot();
+      for (int i = 0; i <= mask; i++) {
+        final Context context = contexts.getAndSet((start + i) & mask, null);
+        if (context != null) {
+          return context;
+        }
+      }
+      return new Context();
+    }
+
+    void release(Context context) {
+      final int start = slot();
+      for (int i = 0; i <= mask; i++) {
+        if (contexts.compareAndSet((start + i) & mask, null, context)) {
+          return;
+        }
+      }
+    }
 
+    private int slot() {
+      return (int) Thread.currentThread().getId() & mask;
+    }
   }
 }
@@ -0,0 +1,166 @@
+package com.github.audunhalland.parceq;
+
+import io.vavr.control.Try;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of parse results keyed by normalised query string.
+ *
+ * <p>The cache is split into segments, each an access-ordered LRU map behind its own lock.
+ * A cached expression is shared between all callers, while each returned {@link ParceQ} gets
+ * its own fork of the term allocator so that derived terms never clash.
+ */
+public class ParseCache {
+  private static final int MAX_SEGMENTS = 16;
+  private static final int MIN_SEGMENT_SIZE = 64;
+
+  private final Segment[] segments;
+  private final int segmentMask;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public ParseCache(int maximumSize) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+    }
+    final int segmentCount = Integer.highestOneBit(
+        Math.max(1, Math.min(MAX_SEGMENTS, maximumSize / MIN_SEGMENT_SIZE)));
+    final int segmentSize = (maximumSize + segmentCount - 1) / segmentCount;
+    segments = new Segment[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment(segmentSize);
+    }
+    segmentMask = segmentCount - 1;
+  }
+
+  public Try<ParceQ> parse(String query) {
+    final String key = normalize(query);
+    final Segment segment = segmentFor(key);
+
+    final CachedParse cached;
+    synchronized (segment) {
+      cached = segment.get(key);
+    }
+    if (cached != null) {
+      hits.increment();
+      return Try.success(cached.toParceQ());
+    }
+
+    misses.increment();
+    final Try<ParceQ> result = ParceQ.parse(key);
+    result.forEach(parceq -> {
+      // The caller may go on adding terms to the table the cached terms are views on
+      materialize(parceq.getExpression());
+      final CachedParse entry =
+          new CachedParse(parceq.getTermAllocator().fork(), parceq.getExpression());
+      synchronized (segment) {
+        segment.put(key, entry);
+      }
+    });
+    return result;
+  }
+
+  private static void materialize(Expression expression) {
+    expression.walk(new ExpressionVisitor() {
+      @Override
+      public void leave(Expression expression) {
+        if (expression.isTerms()) {
+          expression.getValue().get().forEach(Term::materialize);
+        }
+      }
+    });
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  public void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  /**
+   * Strips whitespace that cannot change the parse result. Trailing whitespace is kept when it
+   * might be escaped or part of an unterminated quote.
+   */
+  static String normalize(String query) {
+    int start = 0;
+    int end = query.length();
+    while (start < end && query.charAt(start) == ' ') {
+      start++;
+    }
+    if (query.indexOf('"', start) < 0) {
+      while (end > start && query.charAt(end - 1) == ' ') {
+        end--;
+      }
+      if (end < query.length() && end > start && query.charAt(end - 1) == '\\') {
+        end = query.length();
+      }
+    }
+    return query.substring(start, end);
+  }
+
+  private Segment segmentFor(String key) {
+    final int hash = key.hashCode();
+    return segments[(hash ^ (hash >>> 16)) & segmentMask];
+  }
+
+  private static class CachedParse {
+    final TermAllocator termAllocator;
+    final Expression expression;
+
+    CachedParse(TermAllocator termAllocator, Expression expression) {
+      this.termAllocator = termAllocator;
+      this.expression = expression;
+    }
+
+    ParceQ toParceQ() {
+      return new ParceQ(termAllocator.fork(), expression);
+    }
+  }
+
+  private class Segment extends LinkedHashMap<String, CachedParse> {
+    private static final long serialVersionUID = 1L;
+
+    private final int maximumSize;
+
+    Segment(int maximumSize) {
+      super(16, 0.75f, true);
+      this.maximumSize = maximumSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, CachedParse> eldest) {
+      if (size() > maximumSize) {
+        evictions.increment();
+        return true;
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package com.github.audunhalland.parceq;
+
+/**
+ * Thrown, or returned as a failure, when a query exceeds one of its {@link ParseLimits}.
+ */
+public class ParseLimitExceededException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public enum Limit {
+    INPUT_LENGTH,
+    TERM_COUNT,
+    NESTING_DEPTH,
+    NODE_COUNT,
+    SHINGLE_EXPANSION,
+  }
+
+  private final Limit limit;
+  private final int maximum;
+
+  public ParseLimitExceededException(Limit limit, int maximum) {
+    super("Query exceeds " + limit + " limit of " + maximum);
+    this.limit = limit;
+    this.maximum = maximum;
+  }
+
+  public Limit getLimit() {
+    return limit;
+  }
+
+  public int getMaximum() {
+    return maximum;
+  }
+}
@@ -0,0 +1,120 @@
+package com.github.audunhalland.parceq;
+
+import com.github.audunhalland.parceq.ParseLimitExceededException.Limit;
+
+/**
+ * Bounds on the work done for a single query. The lexer and parser check them as they go, so a
+ * pathological query fails with a {@link ParseLimitExceededException} before it is processed in
+ * full.
+ *
+ * <p>Terms are the words and phrases of the query, and nodes are its terms and operators.
+ * Nesting depth is the depth of sub-expressions the parser descends into, and shingle expansion
+ * is the total number of terms {@link ParceQ#termShingles} may produce.
+ */
+public class ParseLimits {
+  public static final ParseLimits UNLIMITED = new Builder().build();
+
+  private final int maxInputLength;
+  private final int maxTermCount;
+  private final int maxNestingDepth;
+  private final int maxNodeCount;
+  private final int maxShingleExpansion;
+
+  private ParseLimits(Builder builder) {
+    this.maxInputLength = builder.maxInputLength;
+    this.maxTermCount = builder.maxTermCount;
+    this.maxNestingDepth = builder.maxNestingDepth;
+    this.maxNodeCount = builder.maxNodeCount;
+    this.maxShingleExpansion = builder.maxShingleExpansion;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public int getMaxInputLength() {
+    return maxInputLength;
+  }
+
+  public int getMaxTermCount() {
+    return maxTermCount;
+  }
+
+  public int getMaxNestingDepth() {
+    return maxNestingDepth;
+  }
+
+  public int getMaxNodeCount() {
+    return maxNodeCount;
+  }
+
+  public int getMaxShingleExpansion() {
+    return maxShingleExpansion;
+  }
+
+  int get(Limit limit) {
+    switch (limit) {
+      case INPUT_LENGTH:
+        return maxInputLength;
+      case TERM_COUNT:
+        return maxTermCount;
+      case NESTING_DEPTH:
+        return maxNestingDepth;
+      case NODE_COUNT:
+        return maxNodeCount;
+      case SHINGLE_EXPANSION:
+      default:
+        return maxShingleExpansion;
+    }
+  }
+
+  void check(Limit limit, long value) {
+    if (value > get(limit)) {
+      throw new ParseLimitExceededException(limit, get(limit));
+    }
+  }
+
+  public static class Builder {
+    private int maxInputLength = Integer.MAX_VALUE;
+    private int maxTermCount = Integer.MAX_VALUE;
+    private int maxNestingDepth = Integer.MAX_VALUE;
+    private int maxNodeCount = Integer.MAX_VALUE;
+    private int maxShingleExpansion = Integer.MAX_VALUE;
+
+    public Builder maxInputLength(int maxInputLength) {
+      this.maxInputLength = requirePositive(maxInputLength);
+      return this;
+    }
+
+    public Builder maxTermCount(int maxTermCount) {
+      this.maxTermCount = requirePositive(maxTermCount);
+      return this;
+    }
+
+    public Builder maxNestingDepth(int maxNestingDepth) {
+      this.maxNestingDepth = requirePositive(maxNestingDepth);
+      return this;
+    }
+
+    public Builder maxNodeCount(int maxNodeCount) {
+      this.maxNodeCount = requirePositive(maxNodeCount);
+      return this;
+    }
+
+    public Builder maxShingleExpansion(int maxShingleExpansion) {
+      this.maxShingleExpansion = requirePositive(maxShingleExpansion);
+      return this;
+    }
+
+    public ParseLimits build() {
+      return new ParseLimits(this);
+    }
+
+    private static int requirePositive(int value) {
+      if (value <= 0) {
+        throw new IllegalArgumentException("Limit must be positive: " + value);
+      }
+      return value;
+    }
+  }
+}
@@ -1,69 +1,224 @@
 package com.github.audunhalland.parceq;
 
+import com.github.audunhalland.parceq.ParseLimitExceededException.Limit;
 import com.github.audunhalland.parceq.Token.Type;
-import io.vavr.Tuple2;
 import io.vavr.collection.Stream;
-import io.vavr.control.Option;
+import java.util.ArrayDeque;
 
 public class Parser {
   private final TermAllocator termAllocator;
+  private final ParseLimits limits;
 
   public Parser(TermAllocator termAllocator) {
+    this(termAllocator, ParseLimits.UNLIMITED);
+  }
+
+  public Parser(TermAllocator termAllocator, ParseLimits limits) {
     this.termAllocator = termAllocator;
+    this.limits = limits;
   }
 
-  // Pratt parser
-  static class TopDownOperatorPrecedenceParser {
-    private final TermAllocator termAllocator;
+  static class StreamCursor implements TokenCursor {
     private Token head;
     private Stream<Token> tail;
 
-    public TopDownOperatorPrecedenceParser(TermAllocator termAllocator,
-        Stream<Token> tokens) {
-      this.termAllocator = termAllocator;
+    StreamCursor(Stream<Token> tokens) {
       this.head = tokens.head();
       this.tail = tokens.tail();
     }
 
-    private Token next() {
+    @Override
+    public Type type() {
+      return head.getType();
+    }
+
+    @Override
+    public String value() {
+      return head.getValue();
+    }
+
+    @Override
+    public boolean isLast() {
+      return tail.isEmpty();
+    }
+
+    @Override
+    public void next() {
       head = tail.head();
       tail = tail.tail();
-      return head;
+    }
+  }
+
+  // Pratt parser
+  static class TopDownOperatorPrecedenceParser {
+    // Groups are parsed recursively, so their depth is bounded even without a nesting limit
+    static final int MAX_GROUP_DEPTH = 256;
+
+    private TermAllocator termAllocator;
+    private TokenCursor cursor;
+    private ParseLimits limits = ParseLimits.UNLIMITED;
+    private int depth;
+    private int groupDepth;
+    private int termCount;
+    private int nodeCount;
+    private int field = TermTable.NO_FIELD;
+    private Term[] reusableTerms;
+    private Term[] createdTerms;
+
+    TopDownOperatorPrecedenceParser() {
     }
 
+    public TopDownOperatorPrecedenceParser(TermAllocator termAllocator,
+        TokenCursor cursor) {
+      reset(termAllocator, cursor);
+    }
+
+    TopDownOperatorPrecedenceParser reset(TermAllocator termAllocator, TokenCursor cursor) {
+      return reset(termAllocator, cursor, ParseLimits.UNLIMITED);
+    }
+
+    TopDownOperatorPrecedenceParser reset(TermAllocator termAllocator, TokenCursor cursor,
+        ParseLimits limits) {
+      this.termAllocator = termAllocator;
+      this.cursor = cursor;
+      this.limits = limits;
+      this.depth = 0;
+      this.groupDepth = 0;
+      this.termCount = 0;
+      this.nodeCount = 0;
+      this.field = TermTable.NO_FIELD;
+      this.reusableTerms = null;
+      this.createdTerms = null;
+      return this;
+    }
+
+    /**
+     * Use existing terms for the words of the given token positions, and record the term of each
+     * word by token position. A reusable term is only used if it has the field the word gets.
+     */
+    TopDownOperatorPrecedenceParser reuseTerms(Term[] reusableTerms, Term[] createdTerms) {
+      this.reusableTerms = reusableTerms;
+      this.createdTerms = createdTerms;
+      return this;
+    }
+
+    // Unbalanced right parentheses are skipped
+    Expression parse() {
+      Expression expression = parseExpression(0);
+      while (!cursor.isLast() && cursor.type() == Type.RIGHT_PAREN) {
+        cursor.next();
+        expression = juxtapose(expression, parseExpression(0));
+      }
+      return expression.wrap();
+    }
+
+    // A prefix operator parses its right operand in the same loop, with the operator waiting on
+    // an explicit stack, so that long chains of prefix operators do not grow the call stack
     Expression parseExpression(int rightBindingPower) {
-      if (tail.isEmpty()) {
-        return Expression.noop();
+      ArrayDeque<PendingPrefix> pending = null;
+      int bindingPower = rightBindingPower;
+      Expression left = null;
+
+      while (true) {
+        if (left == null) {
+          if (cursor.isLast()) {
+            depth++;
+            left = Expression.noop();
+          } else {
+            limits.check(Limit.NESTING_DEPTH, ++depth);
+            if (isPrefixOperator()) {
+              pending = push(pending, beginPrefix(bindingPower, null));
+              bindingPower = pending.peek().operator.leftBindingPower;
+              continue;
+            }
+            left = getNullDenotation();
+          }
+        }
+
+        while (!cursor.isLast() && bindingPower < cursor.type().leftBindingPower) {
+          if (isPrefixOperator()) {
+            break;
+          }
+          left = getLeftDenotation(left);
+        }
+
+        if (!cursor.isLast() && bindingPower < cursor.type().leftBindingPower) {
+          pending = push(pending, beginPrefix(bindingPower, left));
+          bindingPower = pending.peek().operator.leftBindingPower;
+          left = null;
+          continue;
+        }
+
+        depth--;
+        if (pending == null || pending.isEmpty()) {
+          return left;
+        }
+        final PendingPrefix prefix = pending.pop();
+        left = prefix.complete(left);
+        bindingPower = prefix.bindingPower;
       }
+    }
 
-      Token current = this.head;
-      next();
-      Expression left = getNullDenotation(current);
+    // Prefix operator waiting for its right operand
+    private static final class PendingPrefix {
+      final Type operator;
+      final int bindingPower;
+      final Expression arg;
+      final Expression left;
+
+      PendingPrefix(Type operator, int bindingPower, Expression arg, Expression left) {
+        this.operator = operator;
+        this.bindingPower = bindingPower;
+        this.arg = arg;
+        this.left = left;
+      }
 
-      while (!tail.isEmpty() && rightBindingPower < this.head.getType().leftBindingPower) {
-        current = this.head;
-        next();
-        left = getLeftDenotation(left, current);
+      Expression complete(Expression right) {
+        final Expression rest = left == null ? right : left.extend(right);
+        final Expression required = operator == Type.PREFIX_ANDNOT ? arg.not() : arg;
+        return required.and(rest.wrap());
       }
+    }
+
+    private boolean isPrefixOperator() {
+      return cursor.type() == Type.PREFIX_AND || cursor.type() == Type.PREFIX_ANDNOT;
+    }
+
+    // Consumes the current prefix operator and its argument
+    private PendingPrefix beginPrefix(int bindingPower, Expression left) {
+      limits.check(Limit.NODE_COUNT, ++nodeCount);
+      final Type operator = cursor.type();
+      cursor.next();
+      return new PendingPrefix(operator, bindingPower, parsePrefixArg(), left);
+    }
 
-      return left;
+    private static ArrayDeque<PendingPrefix> push(ArrayDeque<PendingPrefix> pending,
+        PendingPrefix prefix) {
+      final ArrayDeque<PendingPrefix> stack = pending != null ? pending : new ArrayDeque<>();
+      stack.push(prefix);
+      return stack;
     }
 
+    // Chains of prefix operators are consumed in a loop, negations cancel out pairwise
     Expression parsePrefixArg() {
-      if (!tail.isEmpty()) {
-        final Token token = head;
-        next();
-        switch (token.getType()) {
+      boolean negated = false;
+      while (!cursor.isLast()) {
+        switch (cursor.type()) {
           case WORD:
-            return getNullDenotation(token);
+          case FIELD:
+          case LEFT_PAREN:
+            return negated ? getNullDenotation().not() : getNullDenotation();
           case PREFIX_AND:
-            return parsePrefixArg();
+            limits.check(Limit.NODE_COUNT, ++nodeCount);
+            cursor.next();
+            break;
           case PREFIX_ANDNOT:
-            return parsePrefixArg().not();
-          case LEFT_PAREN:
-            // FIXME:
-            return null;
+            limits.check(Limit.NODE_COUNT, ++nodeCount);
+            cursor.next();
+            negated = !negated;
+            break;
           default:
+            cursor.next();
             return Expression.noop();
         }
       }
@@ -71,51 +226,128 @@ public class Parser {
       return Expression.noop();
     }
 
-    Tuple2<Expression, Expression> parsePrefixArgAndRight(int rightBindingPower) {
-      return new Tuple2<>(parsePrefixArg(), parseExpression(rightBindingPower));
+    private Term createRootTerm() {
+      limits.check(Limit.TERM_COUNT, ++termCount);
+      final int position = cursor.position();
+      Term term = null;
+      if (reusableTerms != null && position >= 0 && position < reusableTerms.length) {
+        term = reusableTerms[position];
+        if (term != null && term.getFieldId() != field) {
+          term = null;
+        }
+      }
+      if (term == null) {
+        term = termAllocator.createRootTerm(cursor.valueChars(), field, cursor.isUtf8());
+      }
+      if (createdTerms != null && position >= 0 && position < createdTerms.length) {
+        createdTerms[position] = term;
+      }
+      cursor.next();
+      return term;
+    }
+
+    // Parenthesized expression, the left parenthesis is the current token
+    private Expression parseGroup() {
+      if (groupDepth == MAX_GROUP_DEPTH) {
+        throw new ParseLimitExceededException(Limit.NESTING_DEPTH, MAX_GROUP_DEPTH);
+      }
+      cursor.next();
+      groupDepth++;
+      final Expression expression = parseExpression(0);
+      groupDepth--;
+      if (!cursor.isLast() && cursor.type() == Type.RIGHT_PAREN) {
+        cursor.next();
+      }
+      return expression;
+    }
+
+    // Word or group qualified by the current field token, the last of several fields wins. A
+    // field does not apply to a prefix operator, so "title:-foo" is parsed as "-foo", and the
+    // field must be put after the operator as in "-title:foo"
+    private Expression parseField() {
+      final int outerField = field;
+      while (!cursor.isLast() && cursor.type() == Type.FIELD) {
+        field = termAllocator.internField(cursor.value());
+        cursor.next();
+      }
+      try {
+        if (cursor.isLast()) {
+          return Expression.noop();
+        }
+        switch (cursor.type()) {
+          case WORD:
+            return Expression.of(createRootTerm());
+          case LEFT_PAREN:
+            return parseGroup();
+          default:
+            return Expression.noop();
+        }
+      } finally {
+        field = outerField;
+      }
     }
 
-    private Expression getNullDenotation(Token token) {
-      switch (token.getType()) {
+    // Adjacent terms form one list of terms, anything else is or'ed
+    private static Expression juxtapose(Expression left, Expression right) {
+      if (right.isTerms()) {
+        Expression result = left;
+        for (Term term : right.getValue().get()) {
+          result = result.appendTerm(term);
+        }
+        return result;
+      } else {
+        return left.or(right);
+      }
+    }
+
+    // Consumes the current token, prefix operators are handled by parseExpression
+    private Expression getNullDenotation() {
+      limits.check(Limit.NODE_COUNT, ++nodeCount);
+      switch (cursor.type()) {
         case WORD:
-          return Expression.of(termAllocator.createRootTerm(token.getValue()));
-        case PREFIX_AND:
-          return parsePrefixArgAndRight(Token.Type.PREFIX_AND.leftBindingPower)
-              .apply((arg, right) -> arg.and(right.wrap()));
-        case PREFIX_ANDNOT:
-          return parsePrefixArgAndRight(Token.Type.PREFIX_ANDNOT.leftBindingPower)
-              .apply((arg, right) -> arg.not().and(right.wrap()));
+          return Expression.of(createRootTerm());
+        case FIELD:
+          return parseField();
+        case LEFT_PAREN:
+          return parseGroup();
         default:
+          cursor.next();
           return Expression.noop();
       }
     }
 
-    private Expression getLeftDenotation(Expression left, Token token) {
-      switch (token.getType()) {
+    // Consumes the current token, prefix operators are handled by parseExpression
+    private Expression getLeftDenotation(Expression left) {
+      limits.check(Limit.NODE_COUNT, ++nodeCount);
+      switch (cursor.type()) {
         case WORD:
-          return left.appendTerm(termAllocator.createRootTerm(token.getValue()));
+          return left.appendTerm(createRootTerm());
+        case FIELD:
+          return juxtapose(left, parseField());
+        case LEFT_PAREN:
+          return juxtapose(left, parseGroup());
         case INFIX_AND:
+          cursor.next();
           return left.and(parseExpression(Type.INFIX_AND.leftBindingPower));
         case INFIX_OR:
+          cursor.next();
           return left.or(parseExpression(Type.INFIX_OR.leftBindingPower));
-        case PREFIX_AND:
-          return parsePrefixArgAndRight(Token.Type.PREFIX_AND.leftBindingPower)
-              .map2(left::extend)
-              .apply((arg, rest) -> arg.and(rest.wrap()));
-        case PREFIX_ANDNOT:
-          return parsePrefixArgAndRight(Token.Type.PREFIX_ANDNOT.leftBindingPower)
-              .map2(left::extend)
-              .apply((arg, rest) -> arg.not().and(rest.wrap()));
         default:
+          cursor.next();
           return left;
       }
     }
   }
 
   public Expression parse(Stream<Token> tokens) {
-    final TopDownOperatorPrecedenceParser parser =
-        new TopDownOperatorPrecedenceParser(termAllocator, tokens);
+    return parse(new StreamCursor(tokens));
+  }
+
+  public Expression parse(TokenBuffer tokens) {
+    return parse(tokens.cursor());
+  }
 
-    return parser.parseExpression(0).wrap();
+  public Expression parse(TokenCursor cursor) {
+    return new TopDownOperatorPrecedenceParser().reset(termAllocator, cursor, limits).parse();
   }
 }
@@ -0,0 +1,282 @@
+package com.github.audunhalland.parceq;
+
+import io.vavr.collection.List;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An expression compiled to a flat postfix program, for matching the same query against many
+ * documents.
+ *
+ * <p>Each document is described by the set of term ids it contains. The matching rules are:
+ * a list of terms matches if any term is present, {@code OR} and {@code BOOST} match if any
+ * operand matches, {@code NOT} matches if no operand matches and {@code NOOP} matches nothing.
+ * {@code AND} requires all of its operands, except that {@code BOOST} operands are optional
+ * scoring clauses. They are only required (as a disjunction) when the {@code AND} has no other
+ * positive operand.
+ */
+public class Program {
+  static final int TERM = 0;
+  static final int ANY = 1;
+  static final int ALL = 2;
+  static final int NONE = 3;
+  static final int FALSE = 4;
+  static final int TRUE = 5;
+
+  private final int[] code;
+  private final int[] termIds;
+  private final int maxStackDepth;
+
+  private Program(int[] code, int[] termIds, int maxStackDepth) {
+    this.code = code;
+    this.termIds = termIds;
+    this.maxStackDepth = maxStackDepth;
+  }
+
+  public static Program compile(Expression expression) {
+    final Compiler compiler = new Compiler();
+    compiler.compile(expression);
+    return new Program(
+        Arrays.copyOf(compiler.code, compiler.codeLength),
+        Arrays.copyOf(compiler.termIds, compiler.termCount),
+        compiler.maxDepth);
+  }
+
+  /**
+   * Ids of the terms the program looks at, indexed by the operand of each term instruction.
+   */
+  public int[] getTermIds() {
+    return termIds.clone();
+  }
+
+  public boolean matches(BitSet presentTermIds) {
+    return matches(presentTermIds, new boolean[maxStackDepth]);
+  }
+
+  /**
+   * Evaluate with a caller supplied stack of at least {@link #getMaxStackDepth()} elements.
+   */
+  public boolean matches(BitSet presentTermIds, boolean[] stack) {
+    int sp = 0;
+    int pc = 0;
+    while (pc < code.length) {
+      switch (code[pc++]) {
+        case TERM:
+          stack[sp++] = presentTermIds.get(termIds[code[pc++]]);
+          break;
+        case ANY: {
+          final int base = sp - code[pc++];
+          boolean result = false;
+          for (int i = base; i < sp; i++) {
+            result |= stack[i];
+          }
+          sp = base;
+          stack[sp++] = result;
+          break;
+        }
+        case ALL: {
+          final int base = sp - code[pc++];
+          boolean result = true;
+          for (int i = base; i < sp; i++) {
+            result &= stack[i];
+          }
+          sp = base;
+          stack[sp++] = result;
+          break;
+        }
+        case NONE: {
+          final int base = sp - code[pc++];
+          boolean result = true;
+          for (int i = base; i < sp; i++) {
+            result &= !stack[i];
+          }
+          sp = base;
+          stack[sp++] = result;
+          break;
+        }
+        case FALSE:
+          stack[sp++] = false;
+          break;
+        case TRUE:
+        default:
+          stack[sp++] = true;
+          break;
+      }
+    }
+    return stack[0];
+  }
+
+  public int getMaxStackDepth() {
+    return maxStackDepth;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder();
+    int pc = 0;
+    while (pc < code.length) {
+      if (builder.length() > 0) {
+        builder.append(' ');
+      }
+      switch (code[pc++]) {
+        case TERM:
+          builder.append('#').append(termIds[code[pc++]]);
+          break;
+        case ANY:
+          builder.append("ANY/").append(code[pc++]);
+          break;
+        case ALL:
+          builder.append("ALL/").append(code[pc++]);
+          break;
+        case NONE:
+          builder.append("NONE/").append(code[pc++]);
+          break;
+        case FALSE:
+          builder.append("FALSE");
+          break;
+        default:
+          builder.append("TRUE");
+          break;
+      }
+    }
+    return builder.toString();
+  }
+
+  private static class Compiler {
+    int[] code = new int[32];
+    int codeLength;
+    int[] termIds = new int[8];
+    int termCount;
+    final Map<Integer, Integer> termIndexes = new HashMap<>();
+    int depth;
+    int maxDepth = 1;
+
+    // Expressions to compile and reductions to emit once their operands have been compiled, in
+    // an explicit stack so that deep expressions do not grow the call stack
+    private final ArrayDeque<Object> work = new ArrayDeque<>();
+
+    void compile(Expression root) {
+      work.push(root);
+      while (!work.isEmpty()) {
+        final Object item = work.pop();
+        if (item instanceof Reduce) {
+          final Reduce reduce = (Reduce) item;
+          emitReduce(reduce.opcode, reduce.count);
+          continue;
+        }
+
+        final Expression expression = (Expression) item;
+        if (expression.isTerms()) {
+          final List<Term> terms = expression.getValue().get();
+          for (Term term : terms) {
+            emitTerm(term.getId());
+          }
+          emitReduce(ANY, terms.size());
+          continue;
+        }
+
+        final Expression.SubExpression sub = expression.getValue().getLeft();
+        switch (sub.operator) {
+          case AND:
+            compileAnd(sub.operands);
+            break;
+          case NOT:
+            compileAll(sub.operands, NONE);
+            break;
+          case OR:
+          case BOOST:
+            compileAll(sub.operands, ANY);
+            break;
+          case NOOP:
+          default:
+            emitConstant(FALSE);
+            break;
+        }
+      }
+    }
+
+    private void compileAnd(List<Expression> operands) {
+      final List<Expression> boosts = operands.filter(Compiler::isBoost);
+      final List<Expression> required = operands.filter(expr -> !isBoost(expr));
+
+      if (!boosts.isEmpty() && required.count(expr -> !expr.isNot()) == 0) {
+        work.push(new Reduce(ALL, required.size() + 1));
+        compileAll(boosts, ANY);
+        required.reverse().forEach(work::push);
+      } else {
+        compileAll(required, ALL);
+      }
+    }
+
+    // The expressions are compiled in order, followed by the reduction of their values
+    private void compileAll(List<Expression> expressions, int opcode) {
+      work.push(new Reduce(opcode, expressions.size()));
+      expressions.reverse().forEach(work::push);
+    }
+
+    private static boolean isBoost(Expression expression) {
+      return expression.isCompound()
+          && expression.getValue().getLeft().operator == Operator.BOOST;
+    }
+
+    private void emitTerm(int termId) {
+      Integer index = termIndexes.get(termId);
+      if (index == null) {
+        if (termCount == termIds.length) {
+          termIds = Arrays.copyOf(termIds, termCount * 2);
+        }
+        index = termCount;
+        termIds[termCount++] = termId;
+        termIndexes.put(termId, index);
+      }
+      emit(TERM, index);
+      push(1);
+    }
+
+    private void emitConstant(int opcode) {
+      ensureCapacity(1);
+      code[codeLength++] = opcode;
+      push(1);
+    }
+
+    // Replaces the top count values with one
+    private void emitReduce(int opcode, int count) {
+      if (count == 0) {
+        emitConstant(opcode == ANY ? FALSE : TRUE);
+      } else if (count > 1 || opcode == NONE) {
+        emit(opcode, count);
+        depth -= count - 1;
+      }
+    }
+
+    private void emit(int opcode, int operand) {
+      ensureCapacity(2);
+      code[codeLength++] = opcode;
+      code[codeLength++] = operand;
+    }
+
+    private void push(int count) {
+      depth += count;
+      maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private void ensureCapacity(int extra) {
+      if (codeLength + extra > code.length) {
+        code = Arrays.copyOf(code, Math.max(code.length * 2, codeLength + extra));
+      }
+    }
+  }
+
+  private static class Reduce {
+    final int opcode;
+    final int count;
+
+    Reduce(int opcode, int count) {
+      this.opcode = opcode;
+      this.count = count;
+    }
+  }
+}
@@ -1,42 +1,101 @@
 package com.github.audunhalland.parceq;
 
 import io.vavr.control.Option;
-import java.util.Objects;
 
+/**
+ * A term of a query. Terms created by a {@link TermAllocator} are views on a row of its
+ * {@link TermTable}, and create their value string the first time it is asked for.
+ */
 public class Term {
   private final int id;
-  private final String value;
-  private final Option<String> field;
+  private final TermTable table;
+  private String value;
+  private Option<String> field;
+  private int hash;
 
   public Term(int id, String value) {
     this.id = id;
+    this.table = null;
     this.value = value;
     this.field = Option.none();
   }
 
+  Term(TermTable table, int id, String value) {
+    this.id = id;
+    this.table = table;
+    this.value = value;
+  }
+
   public int getId() {
     return id;
   }
 
   public String getValue() {
-    return value;
+    String v = value;
+    if (v == null) {
+      v = table.value(id);
+      value = v;
+    }
+    return v;
   }
 
   public Option<String> getField() {
-    return field;
+    Option<String> f = field;
+    if (f == null) {
+      f = table.field(id);
+      field = f;
+    }
+    return f;
+  }
+
+  /**
+   * Id of the field in the table, or {@link TermTable#NO_FIELD} for terms without a field and
+   * terms created on their own.
+   */
+  public int getFieldId() {
+    return table != null ? table.fieldId(id) : TermTable.NO_FIELD;
+  }
+
+  /**
+   * Table the term is stored in, or null for a term created on its own.
+   */
+  public TermTable getTable() {
+    return table;
+  }
+
+  /**
+   * Read the value, field and hash from the table, so that the term no longer reads the table.
+   * Needed before sharing terms with threads other than the one appending to the table.
+   */
+  public Term materialize() {
+    getValue();
+    getField();
+    hashCode();
+    return this;
   }
 
   @Override
   public boolean equals(Object other) {
     if (this == other) return true;
-    return other instanceof Term
-        && id == ((Term) other).id
-        && value.equals(((Term) other).value)
-        && field.equals(((Term) other).field);
+    if (!(other instanceof Term)) return false;
+
+    final Term term = (Term) other;
+    if (table != null && table == term.table) {
+      return id == term.id;
+    }
+    return id == term.id
+        && getValue().equals(term.getValue())
+        && getField().equals(term.getField());
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(id, value, field);
+    int h = hash;
+    if (h == 0) {
+      final int valueHash = value != null ? value.hashCode() : table.valueHash(id);
+      h = 31 * (31 * id + valueHash) + getField().hashCode();
+      hash = h;
+    }
+    return h;
   }
 }
@@ -1,19 +1,167 @@
 package com.github.audunhalland.parceq;
 
 import io.vavr.collection.List;
+import java.util.Arrays;
 
+/**
+ * Allocates term ids and records which root terms each derived term was made from.
+ *
+ * <p>Term values and fields are stored in a {@link TermTable}. Provenance is kept in a
+ * compressed sparse row layout: the root ids of term {@code id} are
+ * {@code rootIds[rootOffsets[id]]} up to {@code rootOffsets[id + 1]}. A root term covers just
+ * itself, and a term derived from other derived terms covers their roots.
+ */
 public class TermAllocator {
+  private final TermTable table;
   private int counter;
+  private int[] rootOffsets;
+  private int[] rootIds;
 
   public TermAllocator() {
-    counter = 0;
+    this(new TermTable(), 0, new int[17], new int[16]);
   }
 
-  public Term createRootTerm(String value) {
-    return new Term(counter++, value);
+  private TermAllocator(TermTable table, int counter, int[] rootOffsets, int[] rootIds) {
+    this.table = table;
+    this.counter = counter;
+    this.rootOffsets = rootOffsets;
+    this.rootIds = rootIds;
   }
 
-  public Term createDerivedTerm(String value, List<Term> derivees) {
-    return new Term(counter++, value);
+  public TermTable getTable() {
+    return table;
+  }
+
+  public Term createRootTerm(CharSequence value) {
+    return createRootTerm(value, TermTable.NO_FIELD);
+  }
+
+  public Term createRootTerm(CharSequence value, String field) {
+    return createRootTerm(value, internField(field));
+  }
+
+  Term createRootTerm(CharSequence value, int fieldId) {
+    return createRootTerm(value, fieldId, false);
+  }
+
+  // A UTF-8 value has one byte per char, and is only decoded when asked for
+  Term createRootTerm(CharSequence value, int fieldId, boolean utf8) {
+    addRoot(counter);
+    return newTerm(value, fieldId, false, utf8);
+  }
+
+  /**
+   * Derived terms have the field of their derivees, if they all have the same one.
+   */
+  public Term createDerivedTerm(CharSequence value, List<Term> derivees) {
+    int fieldId = derivees.isEmpty() ? TermTable.NO_FIELD : fieldId(derivees.head());
+    for (Term derivee : derivees) {
+      if (fieldId(derivee) != fieldId) {
+        fieldId = TermTable.NO_FIELD;
+      }
+    }
+    return createDerivedTerm(value, derivees, fieldId, false);
+  }
+
+  Term createDerivedTerm(CharSequence value, List<Term> derivees, int fieldId, boolean utf8) {
+    for (Term derivee : derivees) {
+      final int id = derivee.getId();
+      if (id >= 0 && id < counter) {
+        for (int i = rootOffsets[id]; i < rootOffsets[id + 1]; i++) {
+          addRoot(rootIds[i]);
+        }
+      } else {
+        // Not allocated here, so it can only stand for itself
+        addRoot(id);
+      }
+    }
+    return newTerm(value, fieldId, true, utf8);
+  }
+
+  /**
+   * Small id of a field name, the same for every term of this allocator with that field.
+   */
+  public int internField(String field) {
+    return table.internField(field);
+  }
+
+  /**
+   * Number of term ids allocated so far.
+   */
+  public int size() {
+    return counter;
+  }
+
+  public boolean isDerived(int termId) {
+    return table.isDerived(termId);
+  }
+
+  public int rootCount(int termId) {
+    checkId(termId);
+    return rootOffsets[termId + 1] - rootOffsets[termId];
+  }
+
+  public int rootId(int termId, int index) {
+    checkId(termId);
+    if (index < 0 || index >= rootCount(termId)) {
+      throw new IndexOutOfBoundsException("Root " + index + " of term " + termId);
+    }
+    return rootIds[rootOffsets[termId] + index];
+  }
+
+  public int[] rootIds(int termId) {
+    checkId(termId);
+    return Arrays.copyOfRange(rootIds, rootOffsets[termId], rootOffsets[termId + 1]);
+  }
+
+  /**
+   * New allocator that continues after the terms allocated so far, without sharing any
+   * further state with this one.
+   */
+  public TermAllocator fork() {
+    return new TermAllocator(
+        table.copy(),
+        counter,
+        Arrays.copyOf(rootOffsets, counter + 2),
+        Arrays.copyOf(rootIds, Math.max(1, rootOffsets[counter])));
+  }
+
+  // Terms of other tables are matched by field name
+  int fieldId(Term term) {
+    if (term.getTable() == table) {
+      return table.fieldId(term.getId());
+    }
+    return term.getField().isDefined() ? internField(term.getField().get()) : TermTable.NO_FIELD;
+  }
+
+  private void checkId(int termId) {
+    if (termId < 0 || termId >= counter) {
+      throw new IllegalArgumentException("Term " + termId + " was not allocated here");
+    }
+  }
+
+  // Strings are kept in the term, other values are only stored in the table
+  private Term newTerm(CharSequence value, int fieldId, boolean derived, boolean utf8) {
+    table.add(value, fieldId, derived, utf8);
+    return new Term(table, allocate(), value instanceof String ? (String) value : null);
+  }
+
+  private void addRoot(int rootId) {
+    final int end = rootOffsets[counter + 1];
+    if (end == rootIds.length) {
+      rootIds = Arrays.copyOf(rootIds, end * 2);
+    }
+    rootIds[end] = rootId;
+    rootOffsets[counter + 1] = end + 1;
+  }
+
+  // Closes the row of the current id and opens the next one
+  private int allocate() {
+    final int id = counter++;
+    if (counter + 1 == rootOffsets.length) {
+      rootOffsets = Arrays.copyOf(rootOffsets, rootOffsets.length * 2);
+    }
+    rootOffsets[counter + 1] = rootOffsets[counter];
+    return id;
   }
 }
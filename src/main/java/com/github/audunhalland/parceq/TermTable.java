@@ -0,0 +1,236 @@
+package com.github.audunhalland.parceq;
+
+import io.vavr.control.Option;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Columnar storage of the terms of one {@link TermAllocator}, indexed by term id.
+ *
+ * <p>Values are stored back to back in a shared char buffer, with the value of term {@code id}
+ * at {@code valueStarts[id]} up to {@code valueStarts[id + 1]}. Fields are interned to small int
+ * ids, with -1 for terms without a field. {@link Term} objects are views on a row, and only
+ * create their value string when it is asked for.
+ *
+ * <p>Terms lexed from UTF-8 input are stored as their bytes, one per char, and decoded when the
+ * value is asked for. ASCII values are the same either way. {@link #utf8} gives the UTF-8 bytes
+ * of any term, without decoding and encoding the stored ones.
+ *
+ * <p>A table is appended to by one thread at a time, and rows are never changed once added.
+ */
+public class TermTable {
+  public static final int NO_FIELD = -1;
+
+  private static final byte DERIVED = 1;
+  private static final byte NON_ASCII = 2;
+  private static final byte UTF8 = 4;
+
+  private char[] chars;
+  private int charCount;
+  private int[] valueStarts;
+  private int[] fieldIds;
+  private byte[] flags;
+  private int size;
+
+  // Created with the first field
+  private String[] fieldNames;
+  private Option<String>[] fieldOptions;
+  private int fieldCount;
+  private Map<String, Integer> fieldIdsByName;
+
+  TermTable() {
+    this.chars = new char[64];
+    this.valueStarts = new int[17];
+    this.fieldIds = new int[16];
+    this.flags = new byte[16];
+  }
+
+  private TermTable(TermTable other) {
+    this.chars = Arrays.copyOf(other.chars, Math.max(16, other.charCount));
+    this.charCount = other.charCount;
+    this.valueStarts = Arrays.copyOf(other.valueStarts, other.size + 2);
+    this.fieldIds = Arrays.copyOf(other.fieldIds, other.size + 1);
+    this.flags = Arrays.copyOf(other.flags, other.size + 1);
+    this.size = other.size;
+    if (other.fieldCount > 0) {
+      this.fieldNames = Arrays.copyOf(other.fieldNames, other.fieldNames.length);
+      this.fieldOptions = Arrays.copyOf(other.fieldOptions, other.fieldOptions.length);
+      this.fieldCount = other.fieldCount;
+      this.fieldIdsByName = new HashMap<>(other.fieldIdsByName);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int valueLength(int id) {
+    checkId(id);
+    if ((flags[id] & UTF8) != 0) {
+      return value(id).length();
+    }
+    return valueStarts[id + 1] - valueStarts[id];
+  }
+
+  public char charAt(int id, int offset) {
+    if ((flags[id] & UTF8) != 0) {
+      return value(id).charAt(offset);
+    }
+    return chars[valueStarts[id] + offset];
+  }
+
+  public String value(int id) {
+    checkId(id);
+    final int start = valueStarts[id];
+    final int length = valueStarts[id + 1] - start;
+    return (flags[id] & UTF8) != 0
+        ? Utf8Chars.decode(chars, start, length)
+        : new String(chars, start, length);
+  }
+
+  /**
+   * UTF-8 bytes of the value.
+   */
+  public byte[] utf8(int id) {
+    checkId(id);
+    if ((flags[id] & (NON_ASCII | UTF8)) == NON_ASCII) {
+      return value(id).getBytes(StandardCharsets.UTF_8);
+    }
+    final int start = valueStarts[id];
+    final byte[] bytes = new byte[valueStarts[id + 1] - start];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) chars[start + i];
+    }
+    return bytes;
+  }
+
+  public boolean valueEquals(int id, CharSequence value) {
+    if ((flags[id] & UTF8) != 0) {
+      return value(id).contentEquals(value);
+    }
+    final int length = valueLength(id);
+    if (value.length() != length) {
+      return false;
+    }
+    final int start = valueStarts[id];
+    for (int i = 0; i < length; i++) {
+      if (chars[start + i] != value.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Same as {@code value(id).hashCode()}, without creating the string.
+   */
+  public int valueHash(int id) {
+    checkId(id);
+    if ((flags[id] & UTF8) != 0) {
+      return value(id).hashCode();
+    }
+    int h = 0;
+    for (int i = valueStarts[id]; i < valueStarts[id + 1]; i++) {
+      h = 31 * h + chars[i];
+    }
+    return h;
+  }
+
+  public int fieldId(int id) {
+    checkId(id);
+    return fieldIds[id];
+  }
+
+  public Option<String> field(int id) {
+    final int fieldId = fieldId(id);
+    return fieldId == NO_FIELD ? Option.none() : fieldOptions[fieldId];
+  }
+
+  public String fieldName(int fieldId) {
+    if (fieldId < 0 || fieldId >= fieldCount) {
+      throw new IllegalArgumentException("Unknown field " + fieldId);
+    }
+    return fieldNames[fieldId];
+  }
+
+  public int fieldCount() {
+    return fieldCount;
+  }
+
+  public boolean isDerived(int id) {
+    checkId(id);
+    return (flags[id] & DERIVED) != 0;
+  }
+
+  int internField(String name) {
+    if (fieldIdsByName == null) {
+      fieldNames = new String[4];
+      fieldOptions = newOptions(4);
+      fieldIdsByName = new HashMap<>();
+    }
+    final Integer existing = fieldIdsByName.get(name);
+    if (existing != null) {
+      return existing;
+    }
+    if (fieldCount == fieldNames.length) {
+      fieldNames = Arrays.copyOf(fieldNames, fieldCount * 2);
+      fieldOptions = Arrays.copyOf(fieldOptions, fieldCount * 2);
+    }
+    fieldNames[fieldCount] = name;
+    fieldOptions[fieldCount] = Option.some(name);
+    fieldIdsByName.put(name, fieldCount);
+    return fieldCount++;
+  }
+
+  int add(CharSequence value, int fieldId, boolean derived) {
+    return add(value, fieldId, derived, false);
+  }
+
+  // A UTF-8 value has one byte per char
+  int add(CharSequence value, int fieldId, boolean derived, boolean utf8) {
+    final int length = value.length();
+    if (charCount + length > chars.length) {
+      chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+    }
+    int bits = 0;
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+      chars[charCount + i] = c;
+      bits |= c;
+    }
+    charCount += length;
+    byte flag = derived ? DERIVED : 0;
+    if (bits >= 0x80) {
+      flag |= utf8 ? UTF8 : NON_ASCII;
+    }
+
+    if (size + 2 > valueStarts.length) {
+      valueStarts = Arrays.copyOf(valueStarts, valueStarts.length * 2);
+    }
+    if (size == fieldIds.length) {
+      fieldIds = Arrays.copyOf(fieldIds, size * 2);
+      flags = Arrays.copyOf(flags, size * 2);
+    }
+    fieldIds[size] = fieldId;
+    flags[size] = flag;
+    valueStarts[size + 1] = charCount;
+    return size++;
+  }
+
+  TermTable copy() {
+    return new TermTable(this);
+  }
+
+  private void checkId(int id) {
+    if (id < 0 || id >= size) {
+      throw new IllegalArgumentException("Term " + id + " is not in the table");
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Option<String>[] newOptions(int length) {
+    return (Option<String>[]) new Option[length];
+  }
+}
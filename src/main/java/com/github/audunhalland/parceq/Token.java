@@ -3,7 +3,8 @@ package com.github.audunhalland.parceq;
 public class Token {
   public enum Type {
     WORD(80),
-    LEFT_PAREN(0),
+    FIELD(80),
+    LEFT_PAREN(80),
     RIGHT_PAREN(0),
     INFIX_AND(10),
     INFIX_OR(20),
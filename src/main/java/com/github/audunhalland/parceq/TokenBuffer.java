@@ -0,0 +1,352 @@
+package com.github.audunhalland.parceq;
+
+import io.vavr.collection.Stream;
+import java.util.Arrays;
+
+/**
+ * Tokens of one query stored in parallel primitive arrays.
+ *
+ * <p>A token value is normally a slice of the source text, given by a start offset and a length.
+ * Values that are not contiguous in the source (because escape characters were dropped) are
+ * copied into a shared char buffer instead, and their start is stored as the bitwise complement
+ * of the offset into that buffer. Strings are only created when asked for through {@link #value}.
+ *
+ * <p>A source lexed from UTF-8 bytes has one char per byte, see {@link #isUtf8}. Offsets,
+ * lengths and {@link #charAt} are then in bytes, and {@link #value} decodes the bytes.
+ *
+ * <p>The lexer also records where it went on after each token, so that an edited query can be
+ * lexed again from the last token that ended before the edit.
+ */
+public class TokenBuffer {
+  private static final Token.Type[] TYPES = Token.Type.values();
+  private static final int INITIAL_CAPACITY = 16;
+
+  private CharSequence source = "";
+  private int size;
+  private int[] types = new int[INITIAL_CAPACITY];
+  private int[] starts = new int[INITIAL_CAPACITY];
+  private int[] lengths = new int[INITIAL_CAPACITY];
+  private int[] ends = new int[INITIAL_CAPACITY];
+
+  private char[] copies = new char[INITIAL_CAPACITY];
+  private int copiesLength;
+
+  // value of the token currently being built
+  private int valueStart;
+  private int valueLength;
+  private boolean valueCopied;
+
+  public CharSequence getSource() {
+    return source;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Whether the source is UTF-8 bytes, one per char.
+   */
+  public boolean isUtf8() {
+    return source instanceof Utf8Chars;
+  }
+
+  public Token.Type type(int index) {
+    return TYPES[types[index]];
+  }
+
+  /**
+   * Whether the value of the token is the source slice given by {@link #start} and {@link #length}.
+   */
+  public boolean isSourceSlice(int index) {
+    return starts[index] >= 0;
+  }
+
+  public int start(int index) {
+    return starts[index];
+  }
+
+  public int length(int index) {
+    return lengths[index];
+  }
+
+  /**
+   * Source position the lexer went on from after the token. The token depends on the source
+   * before this position only, and on the character at it.
+   */
+  public int end(int index) {
+    return ends[index];
+  }
+
+  public String value(int index) {
+    final int start = starts[index];
+    if (start >= 0) {
+      return source.subSequence(start, start + lengths[index]).toString();
+    } else {
+      return isUtf8()
+          ? Utf8Chars.decode(copies, ~start, lengths[index])
+          : new String(copies, ~start, lengths[index]);
+    }
+  }
+
+  public char charAt(int index, int offset) {
+    final int start = starts[index];
+    return start >= 0 ? source.charAt(start + offset) : copies[~start + offset];
+  }
+
+  public boolean valueEquals(int index, String value) {
+    if (isUtf8() && !isAscii(value)) {
+      return value(index).equals(value);
+    }
+    if (lengths[index] != value.length()) {
+      return false;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      if (charAt(index, i) != value.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isAscii(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  boolean valueEquals(int index, TokenBuffer other, int otherIndex) {
+    final int length = lengths[index];
+    if (other.lengths[otherIndex] != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (charAt(index, i) != other.charAt(otherIndex, i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public Token token(int index) {
+    return new Token(type(index), value(index));
+  }
+
+  public Cursor cursor() {
+    return new Cursor().reset(this);
+  }
+
+  public Stream<Token> toStream() {
+    return Stream.range(0, size).map(this::token);
+  }
+
+  @Override
+  public String toString() {
+    return toStream().mkString("[", ", ", "]");
+  }
+
+  void reset(CharSequence source) {
+    this.source = source;
+    this.size = 0;
+    this.copiesLength = 0;
+  }
+
+  /**
+   * Start over with the first tokens of another buffer, lexed from a source that begins the same
+   * way as the new one.
+   */
+  void reset(CharSequence source, TokenBuffer prefix, int count) {
+    reset(source);
+    if (types.length < count) {
+      types = new int[prefix.types.length];
+      starts = new int[prefix.types.length];
+      lengths = new int[prefix.types.length];
+      ends = new int[prefix.types.length];
+    }
+    System.arraycopy(prefix.types, 0, types, 0, count);
+    System.arraycopy(prefix.starts, 0, starts, 0, count);
+    System.arraycopy(prefix.lengths, 0, lengths, 0, count);
+    System.arraycopy(prefix.ends, 0, ends, 0, count);
+    size = count;
+
+    for (int i = 0; i < count; i++) {
+      if (starts[i] < 0) {
+        copiesLength = ~starts[i] + lengths[i];
+      }
+    }
+    ensureCopiesCapacity(0);
+    System.arraycopy(prefix.copies, 0, copies, 0, copiesLength);
+  }
+
+  void beginValue(int position) {
+    valueStart = position;
+    valueLength = 0;
+    valueCopied = false;
+  }
+
+  int valueLength() {
+    return valueLength;
+  }
+
+  /**
+   * Append a character found at the given source position to the value being built.
+   */
+  void append(char c, int position) {
+    if (!valueCopied) {
+      if (valueLength == 0) {
+        valueStart = position;
+        valueLength = 1;
+        return;
+      } else if (position == valueStart + valueLength) {
+        valueLength++;
+        return;
+      }
+
+      ensureCopiesCapacity(valueLength);
+      for (int i = 0; i < valueLength; i++) {
+        copies[copiesLength + i] = source.charAt(valueStart + i);
+      }
+      valueStart = ~copiesLength;
+      copiesLength += valueLength;
+      valueCopied = true;
+    }
+
+    ensureCopiesCapacity(1);
+    copies[copiesLength++] = c;
+    valueLength++;
+  }
+
+  // Same as appending the source chars from start up to end one at a time
+  void appendRange(int start, int end) {
+    if (!valueCopied && (valueLength == 0 || start == valueStart + valueLength)) {
+      if (valueLength == 0) {
+        valueStart = start;
+      }
+      valueLength += end - start;
+      return;
+    }
+    for (int i = start; i < end; i++) {
+      append(source.charAt(i), i);
+    }
+  }
+
+  void addValue(Token.Type type) {
+    add(type, valueStart, valueLength);
+  }
+
+  void add(Token.Type type, int start, int length) {
+    if (size == types.length) {
+      final int capacity = size * 2;
+      types = Arrays.copyOf(types, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+    }
+    types[size] = type.ordinal();
+    starts[size] = start;
+    lengths[size] = length;
+    size++;
+  }
+
+  void setType(int index, Token.Type type) {
+    types[index] = type.ordinal();
+  }
+
+  void setEnd(int index, int end) {
+    ends[index] = end;
+  }
+
+  private void ensureCopiesCapacity(int extra) {
+    if (copiesLength + extra > copies.length) {
+      copies = Arrays.copyOf(copies, Math.max(copies.length * 2, copiesLength + extra));
+    }
+  }
+
+  /**
+   * Cursor over a token buffer that can be reset and reused for subsequent parses.
+   */
+  public static class Cursor implements TokenCursor {
+    private final ValueView valueView = new ValueView();
+    private TokenBuffer tokens;
+    private int position;
+
+    public Cursor reset(TokenBuffer tokens) {
+      this.tokens = tokens;
+      this.position = 0;
+      return this;
+    }
+
+    @Override
+    public int position() {
+      return position;
+    }
+
+    @Override
+    public Token.Type type() {
+      return tokens.type(position);
+    }
+
+    @Override
+    public String value() {
+      return tokens.value(position);
+    }
+
+    @Override
+    public CharSequence valueChars() {
+      return valueView;
+    }
+
+    @Override
+    public boolean isUtf8() {
+      return tokens.isUtf8();
+    }
+
+    public boolean isSourceSlice() {
+      return tokens.isSourceSlice(position);
+    }
+
+    public int start() {
+      return tokens.start(position);
+    }
+
+    public int length() {
+      return tokens.length(position);
+    }
+
+    @Override
+    public boolean isLast() {
+      return position >= tokens.size - 1;
+    }
+
+    @Override
+    public void next() {
+      position++;
+    }
+
+    // The value of the current token, without copying it to a string
+    private class ValueView implements CharSequence {
+      @Override
+      public int length() {
+        return tokens.length(position);
+      }
+
+      @Override
+      public char charAt(int index) {
+        return tokens.charAt(position, index);
+      }
+
+      @Override
+      public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+      }
+
+      @Override
+      public String toString() {
+        return tokens.value(position);
+      }
+    }
+  }
+}
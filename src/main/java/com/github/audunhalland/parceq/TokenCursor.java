@@ -0,0 +1,35 @@
+package com.github.audunhalland.parceq;
+
+/**
+ * Forward-only position in a sequence of tokens, the last of which is {@link Token.Type#EOF}.
+ */
+public interface TokenCursor {
+  Token.Type type();
+
+  String value();
+
+  /**
+   * Value of the current token, which may be a view that is only valid until {@link #next()}.
+   */
+  default CharSequence valueChars() {
+    return value();
+  }
+
+  /**
+   * Whether {@link #valueChars()} are UTF-8 bytes, one per char.
+   */
+  default boolean isUtf8() {
+    return false;
+  }
+
+  /**
+   * Index of the current token, or -1 if the tokens are not indexed.
+   */
+  default int position() {
+    return -1;
+  }
+
+  boolean isLast();
+
+  void next();
+}
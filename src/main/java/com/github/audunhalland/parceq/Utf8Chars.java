@@ -0,0 +1,75 @@
+package com.github.audunhalland.parceq;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UTF-8 bytes seen as a sequence with one char per byte, which is how the lexer reads a byte
+ * buffer without decoding it. All query syntax is ASCII, and the bytes of other characters are
+ * all above 0x7f, so they are only ever part of words. {@link #toString} decodes the bytes.
+ */
+final class Utf8Chars implements CharSequence {
+  private final ByteBuffer buffer;
+  private final byte[] array;
+  private final int offset;
+  private final int length;
+
+  private Utf8Chars(ByteBuffer buffer, byte[] array, int offset, int length) {
+    this.buffer = buffer;
+    this.array = array;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * View of the remaining bytes of the buffer, leaving its position unchanged.
+   */
+  static Utf8Chars of(ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      return new Utf8Chars(null, buffer.array(), buffer.arrayOffset() + buffer.position(),
+          buffer.remaining());
+    }
+    return new Utf8Chars(buffer, null, buffer.position(), buffer.remaining());
+  }
+
+  static String decode(char[] units, int offset, int length) {
+    final byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) units[offset + i];
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("Index " + index + " of length " + length);
+    }
+    return (char) ((array != null ? array[offset + index] : buffer.get(offset + index)) & 0xff);
+  }
+
+  @Override
+  public Utf8Chars subSequence(int start, int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException("Range " + start + " to " + end + " of length " + length);
+    }
+    return new Utf8Chars(buffer, array, offset + start, end - start);
+  }
+
+  @Override
+  public String toString() {
+    if (array != null) {
+      return new String(array, offset, length, StandardCharsets.UTF_8);
+    }
+    final byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(offset + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
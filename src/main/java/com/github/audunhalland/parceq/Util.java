@@ -4,14 +4,57 @@ import io.vavr.collection.List;
 import java.util.function.Function;
 
 public class Util {
+  /**
+   * Receives the shingle of the items from start (inclusive) to end (exclusive).
+   */
+  @FunctionalInterface
+  public interface ShingleConsumer {
+    void accept(int start, int end);
+  }
+
+  /**
+   * Emit every shingle of up to order consecutive items out of count, ordered by start and then
+   * by length, in a single pass without allocating.
+   */
+  public static void forEachShingle(int count, int order, ShingleConsumer consumer) {
+    final int maxLength = Math.max(order, 1);
+    for (int start = 0; start < count; start++) {
+      final int end = Math.min(count, start + maxLength);
+      for (int shingleEnd = start + 1; shingleEnd <= end; shingleEnd++) {
+        consumer.accept(start, shingleEnd);
+      }
+    }
+  }
+
+  public static int shingleCount(int count, int order) {
+    final long n = Math.min(Math.max(order, 1), count);
+    return (int) Math.min(Integer.MAX_VALUE, n * count - n * (n - 1) / 2);
+  }
+
   public static <T> Function<List<T>, List<List<T>>> shingler(int order) {
-    return input ->
-        Util.<T>slidingZipper(order)
-            .apply(input.map(List::of))
-            .flatMap(Function.identity())
-            .toList();
+    return input -> {
+      final Object[] items = input.toJavaArray();
+      final Object[] shingles = new Object[shingleCount(items.length, order)];
+      final int[] index = new int[1];
+      forEachShingle(items.length, order, (start, end) -> {
+        List<Object> shingle = List.empty();
+        for (int i = end - 1; i >= start; i--) {
+          shingle = shingle.prepend(items[i]);
+        }
+        shingles[index[0]++] = shingle;
+      });
+
+      @SuppressWarnings("unchecked")
+      final List<List<T>> result = (List<List<T>>) (List<?>) List.of(shingles);
+      return result;
+    };
   }
 
+  /**
+   * Superseded by {@link #forEachShingle}, which produces the same shingles without
+   * intermediate lists.
+   */
+  @Deprecated
   public static <T> Function<List<List<T>>, List<List<List<T>>>> slidingZipper(int n) {
     return input ->
         n <= 1
@@ -0,0 +1,35 @@
+package com.github.audunhalland.parceq.exec;
+
+public class AllDocsIterator extends DocIdIterator {
+  private final int maxDoc;
+  private int doc = -1;
+
+  public AllDocsIterator(int maxDoc) {
+    this.maxDoc = maxDoc;
+  }
+
+  @Override
+  public int docId() {
+    return doc;
+  }
+
+  @Override
+  public int nextDoc() {
+    return advance(doc + 1);
+  }
+
+  @Override
+  public int advance(int target) {
+    return doc = target < maxDoc ? Math.max(target, doc) : NO_MORE_DOCS;
+  }
+
+  @Override
+  public long cost() {
+    return maxDoc;
+  }
+
+  @Override
+  public float score() {
+    return 0f;
+  }
+}
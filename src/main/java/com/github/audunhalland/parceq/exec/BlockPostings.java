@@ -0,0 +1,134 @@
+package com.github.audunhalland.parceq.exec;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Compressed postings format: document ids are delta encoded in blocks of {@link #BLOCK_SIZE}
+ * and each block is bit-packed with the width of its largest delta (frame of reference).
+ *
+ * <p>The postings of one term is a region of longs:
+ * <pre>
+ *   count
+ *   skip entry per block: lastDoc (high 32 bits) | data offset (26 bits) | bit width (6 bits)
+ *   packed block data
+ *   one padding long
+ * </pre>
+ * Deltas are stored minus one, so runs of consecutive documents pack to zero bits. Data offsets
+ * are relative to the start of the region. The padding lets the decoder always read two words.
+ */
+public class BlockPostings {
+  public static final int BLOCK_SIZE = 128;
+  private static final int MAX_REGION_SIZE = 1 << 26;
+
+  private BlockPostings() {
+  }
+
+  public static int blockCount(int count) {
+    return (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+  }
+
+  public static long[] encode(int[] docs, int length) {
+    final int blocks = blockCount(length);
+    final int[] bitWidths = new int[blocks];
+
+    int size = 1 + blocks + 1;
+    int previous = -1;
+    for (int block = 0; block < blocks; block++) {
+      final int start = block * BLOCK_SIZE;
+      final int end = Math.min(length, start + BLOCK_SIZE);
+      int max = 0;
+      for (int i = start; i < end; i++) {
+        max |= docs[i] - previous - 1;
+        previous = docs[i];
+      }
+      bitWidths[block] = 32 - Integer.numberOfLeadingZeros(max);
+      size += packedLength(end - start, bitWidths[block]);
+    }
+    if (size > MAX_REGION_SIZE) {
+      throw new IllegalArgumentException("Too many postings to encode: " + length);
+    }
+
+    final long[] region = new long[size];
+    region[0] = length;
+    int offset = 1 + blocks;
+    previous = -1;
+    for (int block = 0; block < blocks; block++) {
+      final int start = block * BLOCK_SIZE;
+      final int end = Math.min(length, start + BLOCK_SIZE);
+      final int bits = bitWidths[block];
+      region[1 + block] = ((long) docs[end - 1] << 32) | ((long) offset << 6) | bits;
+
+      for (int i = start; i < end; i++) {
+        final long delta = docs[i] - previous - 1;
+        previous = docs[i];
+        final long bitPosition = (long) (i - start) * bits;
+        final int word = offset + (int) (bitPosition >>> 6);
+        final int shift = (int) (bitPosition & 63);
+        region[word] |= delta << shift;
+        if (shift + bits > 64) {
+          region[word + 1] |= delta >>> (64 - shift);
+        }
+      }
+      offset += packedLength(end - start, bits);
+    }
+    return region;
+  }
+
+  static int packedLength(int count, int bits) {
+    return (count * bits + 63) >>> 6;
+  }
+
+  private static void unpack(long[] words, int offset, int bits, int length, int[] docs) {
+    final long mask = (1L << bits) - 1;
+    for (int i = 0; i < length; i++) {
+      final int bitPosition = i * bits;
+      final int word = offset + (bitPosition >>> 6);
+      final int shift = bitPosition & 63;
+      final long value = (words[word] >>> shift) | ((words[word + 1] << 1) << (63 - shift));
+      docs[i] = (int) (value & mask);
+    }
+  }
+
+  static int count(LongBuffer data, int region) {
+    return (int) data.get(region);
+  }
+
+  static int lastDoc(long skipEntry) {
+    return (int) (skipEntry >>> 32);
+  }
+
+  /**
+   * Unpack a block into docs and return the number of documents in it.
+   */
+  static int decodeBlock(LongBuffer data, int region, int block, int count, int[] docs) {
+    final long skipEntry = data.get(region + 1 + block);
+    final int offset = region + ((int) skipEntry >>> 6);
+    final int bits = (int) skipEntry & 63;
+    final int length = Math.min(BLOCK_SIZE, count - block * BLOCK_SIZE);
+    final long mask = (1L << bits) - 1;
+
+    // Unpack, reading two words per value so that the loop has no branches
+    if (bits == 0) {
+      Arrays.fill(docs, 0, length, 0);
+    } else if (data.hasArray()) {
+      unpack(data.array(), data.arrayOffset() + offset, bits, length, docs);
+    } else {
+      for (int i = 0; i < length; i++) {
+        final int bitPosition = i * bits;
+        final int word = offset + (bitPosition >>> 6);
+        final int shift = bitPosition & 63;
+        final long value = (data.get(word) >>> shift) | ((data.get(word + 1) << 1) << (63 - shift));
+        docs[i] = (int) (value & mask);
+      }
+    }
+
+    // Prefix sum of deltas
+    int previous = block == 0 ? -1 : lastDoc(data.get(region + block));
+    for (int i = 0; i < length; i++) {
+      previous += docs[i] + 1;
+      docs[i] = previous;
+    }
+    return length;
+  }
+}
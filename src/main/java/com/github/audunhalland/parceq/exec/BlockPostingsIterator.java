@@ -0,0 +1,88 @@
+package com.github.audunhalland.parceq.exec;
+
+import java.nio.LongBuffer;
+
+/**
+ * Iterator over a {@link BlockPostings} region, decoding one block at a time and using the
+ * skip table to jump over blocks that end before an advance target.
+ */
+public class BlockPostingsIterator extends DocIdIterator {
+  private final LongBuffer data;
+  private final int region;
+  private final int count;
+  private final int blocks;
+  private final int[] buffer = new int[BlockPostings.BLOCK_SIZE];
+
+  private int block = -1;
+  private int blockLength;
+  private int position;
+  private int doc = -1;
+
+  public BlockPostingsIterator(LongBuffer data, int region) {
+    this.data = data;
+    this.region = region;
+    this.count = BlockPostings.count(data, region);
+    this.blocks = BlockPostings.blockCount(count);
+  }
+
+  public BlockPostingsIterator(long[] region) {
+    this(LongBuffer.wrap(region), 0);
+  }
+
+  @Override
+  public int docId() {
+    return doc;
+  }
+
+  @Override
+  public int nextDoc() {
+    if (++position < blockLength) {
+      return doc = buffer[position];
+    }
+    return doc = decode(block + 1) ? buffer[position] : NO_MORE_DOCS;
+  }
+
+  @Override
+  public int advance(int target) {
+    if (doc >= target) {
+      return doc;
+    }
+
+    if (block < 0 || target > buffer[blockLength - 1]) {
+      int next = block + 1;
+      while (next < blocks && BlockPostings.lastDoc(skipEntry(next)) < target) {
+        next++;
+      }
+      if (!decode(next)) {
+        return doc = NO_MORE_DOCS;
+      }
+    }
+
+    while (buffer[position] < target) {
+      position++;
+    }
+    return doc = buffer[position];
+  }
+
+  @Override
+  public long cost() {
+    return count;
+  }
+
+  private long skipEntry(int block) {
+    return data.get(region + 1 + block);
+  }
+
+  private boolean decode(int next) {
+    if (next >= blocks) {
+      block = blocks;
+      blockLength = 0;
+      position = 0;
+      return false;
+    }
+    block = next;
+    blockLength = BlockPostings.decodeBlock(data, region, block, count, buffer);
+    position = 0;
+    return true;
+  }
+}
@@ -0,0 +1,46 @@
+package com.github.audunhalland.parceq.exec;
+
+import com.github.audunhalland.parceq.Term;
+import java.util.Map;
+
+/**
+ * In-memory index with postings compressed in the {@link BlockPostings} format. Terms are looked
+ * up by field and value like in {@link InvertedIndex}.
+ */
+public class CompressedIndex implements Index {
+  private final Map<String, long[]> postings;
+  private final int maxDoc;
+
+  CompressedIndex(Map<String, long[]> postings, int maxDoc) {
+    this.postings = postings;
+    this.maxDoc = maxDoc;
+  }
+
+  @Override
+  public int maxDoc() {
+    return maxDoc;
+  }
+
+  @Override
+  public int docFreq(Term term) {
+    final long[] region = postings.get(TermKey.of(term));
+    return region == null ? 0 : (int) region[0];
+  }
+
+  @Override
+  public DocIdIterator postings(Term term) {
+    final long[] region = postings.get(TermKey.of(term));
+    return region == null ? DocIdIterator.empty() : new BlockPostingsIterator(region);
+  }
+
+  /**
+   * Total size of the compressed postings in bytes.
+   */
+  public long sizeInBytes() {
+    long longs = 0;
+    for (long[] region : postings.values()) {
+      longs += region.length;
+    }
+    return longs * Long.BYTES;
+  }
+}
@@ -0,0 +1,56 @@
+package com.github.audunhalland.parceq.exec;
+
+/**
+ * Intersection of iterators, leapfrogging from the first one, which should be the cheapest.
+ */
+public class ConjunctionIterator extends DocIdIterator {
+  private final DocIdIterator[] iterators;
+  private int doc = -1;
+
+  public ConjunctionIterator(DocIdIterator[] iterators) {
+    this.iterators = iterators;
+  }
+
+  @Override
+  public int docId() {
+    return doc;
+  }
+
+  @Override
+  public int nextDoc() {
+    return doc = align(iterators[0].nextDoc());
+  }
+
+  @Override
+  public int advance(int target) {
+    return doc = align(iterators[0].advance(target));
+  }
+
+  private int align(int target) {
+    int i = 1;
+    while (target != NO_MORE_DOCS && i < iterators.length) {
+      final int found = iterators[i].advance(target);
+      if (found == target) {
+        i++;
+      } else {
+        target = iterators[0].advance(found);
+        i = 1;
+      }
+    }
+    return target;
+  }
+
+  @Override
+  public long cost() {
+    return iterators[0].cost();
+  }
+
+  @Override
+  public float score() {
+    float score = 0f;
+    for (DocIdIterator iterator : iterators) {
+      score += iterator.score();
+    }
+    return score;
+  }
+}
@@ -0,0 +1,79 @@
+package com.github.audunhalland.parceq.exec;
+
+/**
+ * Union of iterators, kept in a binary min-heap ordered by current document.
+ */
+public class DisjunctionIterator extends DocIdIterator {
+  private final DocIdIterator[] heap;
+  private final long cost;
+  private int doc = -1;
+
+  public DisjunctionIterator(DocIdIterator[] iterators) {
+    this.heap = iterators.clone();
+    long cost = 0;
+    for (DocIdIterator iterator : iterators) {
+      cost += iterator.cost();
+    }
+    this.cost = cost;
+  }
+
+  @Override
+  public int docId() {
+    return doc;
+  }
+
+  @Override
+  public int nextDoc() {
+    return advance(doc + 1);
+  }
+
+  @Override
+  public int advance(int target) {
+    if (doc == NO_MORE_DOCS || doc >= target) {
+      return doc;
+    }
+    while (heap[0].docId() < target) {
+      heap[0].advance(target);
+      siftDown();
+    }
+    return doc = heap[0].docId();
+  }
+
+  @Override
+  public long cost() {
+    return cost;
+  }
+
+  @Override
+  public float score() {
+    return score(0);
+  }
+
+  // Sum of scores of the iterators positioned on the current document
+  private float score(int index) {
+    if (index >= heap.length || heap[index].docId() != doc) {
+      return 0f;
+    }
+    return heap[index].score() + score(2 * index + 1) + score(2 * index + 2);
+  }
+
+  private void siftDown() {
+    final DocIdIterator top = heap[0];
+    int index = 0;
+    while (true) {
+      int child = 2 * index + 1;
+      if (child >= heap.length) {
+        break;
+      }
+      if (child + 1 < heap.length && heap[child + 1].docId() < heap[child].docId()) {
+        child++;
+      }
+      if (heap[child].docId() >= top.docId()) {
+        break;
+      }
+      heap[index] = heap[child];
+      index = child;
+    }
+    heap[index] = top;
+  }
+}
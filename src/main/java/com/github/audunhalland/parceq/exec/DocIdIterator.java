@@ -0,0 +1,31 @@
+package com.github.audunhalland.parceq.exec;
+
+/**
+ * Iterator over ascending document ids. Before the first call to {@link #nextDoc()} or
+ * {@link #advance(int)} the current document is -1.
+ */
+public abstract class DocIdIterator {
+  public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+  public abstract int docId();
+
+  public abstract int nextDoc();
+
+  /**
+   * Move to the first document at or beyond target and return it.
+   */
+  public abstract int advance(int target);
+
+  /**
+   * Upper bound on the number of documents this iterator matches.
+   */
+  public abstract long cost();
+
+  public float score() {
+    return 1f;
+  }
+
+  public static DocIdIterator empty() {
+    return new PostingsIterator(new int[0], 0);
+  }
+}
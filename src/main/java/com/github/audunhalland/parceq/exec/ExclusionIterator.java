@@ -0,0 +1,46 @@
+package com.github.audunhalland.parceq.exec;
+
+/**
+ * Documents of an included iterator that are not in an excluded iterator.
+ */
+public class ExclusionIterator extends DocIdIterator {
+  private final DocIdIterator include;
+  private final DocIdIterator exclude;
+
+  public ExclusionIterator(DocIdIterator include, DocIdIterator exclude) {
+    this.include = include;
+    this.exclude = exclude;
+  }
+
+  @Override
+  public int docId() {
+    return include.docId();
+  }
+
+  @Override
+  public int nextDoc() {
+    return skipExcluded(include.nextDoc());
+  }
+
+  @Override
+  public int advance(int target) {
+    return skipExcluded(include.advance(target));
+  }
+
+  private int skipExcluded(int doc) {
+    while (doc != NO_MORE_DOCS && exclude.advance(doc) == doc) {
+      doc = include.nextDoc();
+    }
+    return doc;
+  }
+
+  @Override
+  public long cost() {
+    return include.cost();
+  }
+
+  @Override
+  public float score() {
+    return include.score();
+  }
+}
@@ -0,0 +1,141 @@
+package com.github.audunhalland.parceq.exec;
+
+import com.github.audunhalland.parceq.Expression;
+import com.github.audunhalland.parceq.ExpressionVisitor;
+import com.github.audunhalland.parceq.Operator;
+import com.github.audunhalland.parceq.Term;
+import io.vavr.Tuple2;
+import io.vavr.collection.List;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Executes expressions against an {@link Index} with the matching rules of
+ * {@link com.github.audunhalland.parceq.Program}: {@code BOOST} operands of an {@code AND} are
+ * optional clauses that only contribute to the score, unless the {@code AND} has no other
+ * positive operand.
+ */
+public class ExpressionExecutor {
+  private final Index index;
+
+  public ExpressionExecutor(Index index) {
+    this.index = index;
+  }
+
+  /**
+   * Builds the iterators of the operands first, on an explicit stack. The entry of a
+   * {@code NOT} is the union of the documents it excludes, so that an enclosing {@code AND}
+   * can exclude them directly.
+   */
+  public DocIdIterator iterator(Expression expression) {
+    final ArrayDeque<DocIdIterator> results = new ArrayDeque<>();
+    expression.walk(new ExpressionVisitor() {
+      @Override
+      public void leave(Expression node) {
+        if (node.isTerms()) {
+          results.push(terms(node.getValue().get()));
+          return;
+        }
+
+        final Expression.SubExpression sub = node.getValue().getLeft();
+        List<DocIdIterator> iterators = List.empty();
+        for (int i = sub.getOperands().size(); i > 0; i--) {
+          iterators = iterators.prepend(results.pop());
+        }
+        switch (sub.getOperator()) {
+          case AND:
+            results.push(and(sub.getOperands(), iterators));
+            break;
+          case NOT:
+          case OR:
+          case BOOST:
+            results.push(or(sub.getOperands(), iterators));
+            break;
+          case NOOP:
+          default:
+            results.push(DocIdIterator.empty());
+            break;
+        }
+      }
+    });
+    return matching(expression, results.pop());
+  }
+
+  /**
+   * All matching document ids in ascending order.
+   */
+  public int[] search(Expression expression) {
+    final DocIdIterator iterator = iterator(expression);
+    int[] docs = new int[16];
+    int length = 0;
+    for (int doc = iterator.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS; doc = iterator.nextDoc()) {
+      if (length == docs.length) {
+        docs = Arrays.copyOf(docs, length * 2);
+      }
+      docs[length++] = doc;
+    }
+    return Arrays.copyOf(docs, length);
+  }
+
+  private DocIdIterator terms(List<Term> terms) {
+    return union(terms.map(index::postings));
+  }
+
+  private DocIdIterator matching(Expression expression, DocIdIterator iterator) {
+    return expression.isNot()
+        ? new ExclusionIterator(new AllDocsIterator(index.maxDoc()), iterator)
+        : iterator;
+  }
+
+  private DocIdIterator or(List<Expression> operands, List<DocIdIterator> iterators) {
+    return union(operands.zipWith(iterators, this::matching));
+  }
+
+  private DocIdIterator and(List<Expression> operands, List<DocIdIterator> iterators) {
+    final List<Tuple2<Expression, DocIdIterator>> pairs = operands.zip(iterators);
+    final List<DocIdIterator> boosts = pairs
+        .filter(pair -> isOperator(pair._1, Operator.BOOST))
+        .map(Tuple2::_2);
+    final List<DocIdIterator> nots = pairs
+        .filter(pair -> pair._1.isNot())
+        .map(Tuple2::_2);
+    final List<DocIdIterator> required = pairs
+        .filter(pair -> !pair._1.isNot() && !isOperator(pair._1, Operator.BOOST))
+        .map(Tuple2::_2);
+
+    DocIdIterator iterator;
+    if (!required.isEmpty()) {
+      iterator = required.size() == 1
+          ? required.head()
+          : new ConjunctionIterator(required.toJavaArray(DocIdIterator.class));
+    } else if (!boosts.isEmpty()) {
+      iterator = union(boosts);
+    } else {
+      iterator = new AllDocsIterator(index.maxDoc());
+    }
+
+    if (!nots.isEmpty()) {
+      iterator = new ExclusionIterator(iterator, union(nots));
+    }
+
+    if (!required.isEmpty() && !boosts.isEmpty()) {
+      iterator = new OptionalIterator(iterator, union(boosts));
+    }
+
+    return iterator;
+  }
+
+  private static DocIdIterator union(List<DocIdIterator> iterators) {
+    if (iterators.isEmpty()) {
+      return DocIdIterator.empty();
+    } else if (iterators.size() == 1) {
+      return iterators.head();
+    } else {
+      return new DisjunctionIterator(iterators.toJavaArray(DocIdIterator.class));
+    }
+  }
+
+  private static boolean isOperator(Expression expression, Operator operator) {
+    return expression.isCompound() && expression.getValue().getLeft().getOperator() == operator;
+  }
+}
@@ -0,0 +1,10 @@
+package com.github.audunhalland.parceq.exec;
+
+import com.github.audunhalland.parceq.Term;
+
+/**
+ * Postings source that expressions can be executed against.
+ */
+public interface Index extends TermStatistics {
+  DocIdIterator postings(Term term);
+}
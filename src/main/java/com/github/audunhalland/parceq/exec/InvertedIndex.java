@@ -0,0 +1,109 @@
+package com.github.audunhalland.parceq.exec;
+
+import com.github.audunhalland.parceq.Term;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory index from term to a sorted array of document ids. Terms are looked up by field and
+ * value, so a term with a field only matches postings added to that field.
+ */
+public class InvertedIndex implements Index {
+  private static final int[] NO_DOCS = new int[0];
+
+  private final Map<String, int[]> postings;
+  private final int maxDoc;
+
+  InvertedIndex(Map<String, int[]> postings, int maxDoc) {
+    this.postings = postings;
+    this.maxDoc = maxDoc;
+  }
+
+  @Override
+  public int maxDoc() {
+    return maxDoc;
+  }
+
+  @Override
+  public int docFreq(Term term) {
+    return docs(term).length;
+  }
+
+  @Override
+  public DocIdIterator postings(Term term) {
+    final int[] docs = docs(term);
+    return new PostingsIterator(docs, docs.length);
+  }
+
+  Map<String, int[]> postings() {
+    return postings;
+  }
+
+  private int[] docs(Term term) {
+    return postings.getOrDefault(TermKey.of(term), NO_DOCS);
+  }
+
+  public static class Builder {
+    private final Map<String, int[]> postings = new HashMap<>();
+    private final Map<String, Integer> lengths = new HashMap<>();
+    private int maxDoc;
+
+    /**
+     * Add a document containing the given terms, assigning it the next document id.
+     */
+    public int addDocument(String ... terms) {
+      final int doc = maxDoc++;
+      for (String term : terms) {
+        add(TermKey.of(null, term), doc);
+      }
+      return doc;
+    }
+
+    /**
+     * Add terms of the given field to the last added document. They only match query terms with
+     * the same field.
+     */
+    public Builder addField(String field, String ... terms) {
+      if (maxDoc == 0) {
+        throw new IllegalStateException("No document to add the field to");
+      }
+      if (!TermKey.isValidField(field)) {
+        throw new IllegalArgumentException("Invalid field name: " + field);
+      }
+      for (String term : terms) {
+        add(TermKey.of(field, term), maxDoc - 1);
+      }
+      return this;
+    }
+
+    private void add(String term, int doc) {
+      int[] docs = postings.get(term);
+      final int length = lengths.getOrDefault(term, 0);
+      if (docs == null) {
+        docs = new int[4];
+      } else if (docs[length - 1] == doc) {
+        return;
+      } else if (length == docs.length) {
+        docs = Arrays.copyOf(docs, length * 2);
+      }
+      docs[length] = doc;
+      postings.put(term, docs);
+      lengths.put(term, length + 1);
+    }
+
+    public InvertedIndex build() {
+      final Map<String, int[]> trimmed = new HashMap<>();
+      postings.forEach((term, docs) ->
+          trimmed.put(term, Arrays.copyOf(docs, lengths.get(term))));
+      return new InvertedIndex(trimmed, maxDoc);
+    }
+
+    public CompressedIndex buildCompressed() {
+      final Map<String, long[]> compressed = new HashMap<>();
+      postings.forEach((term, docs) ->
+          compressed.put(term, BlockPostings.encode(docs, lengths.get(term))));
+      return new CompressedIndex(compressed, maxDoc);
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package com.github.audunhalland.parceq.exec;
+
+/**
+ * Documents of a required iterator, scored with an optional iterator when it also matches.
+ */
+public class OptionalIterator extends DocIdIterator {
+  private final DocIdIterator required;
+  private final DocIdIterator optional;
+
+  public OptionalIterator(DocIdIterator required, DocIdIterator optional) {
+    this.required = required;
+    this.optional = optional;
+  }
+
+  @Override
+  public int docId() {
+    return required.docId();
+  }
+
+  @Override
+  public int nextDoc() {
+    return required.nextDoc();
+  }
+
+  @Override
+  public int advance(int target) {
+    return required.advance(target);
+  }
+
+  @Override
+  public long cost() {
+    return required.cost();
+  }
+
+  @Override
+  public float score() {
+    final int doc = required.docId();
+    final float score = required.score();
+    return optional.advance(doc) == doc ? score + optional.score() : score;
+  }
+}
@@ -0,0 +1,55 @@
+package com.github.audunhalland.parceq.exec;
+
+import com.github.audunhalland.parceq.Expression;
+import io.vavr.collection.List;
+
+/**
+ * A rewritten expression annotated with the estimated number of matching documents of each
+ * node. Plans are created by {@link QueryPlanner}.
+ *
+ * <p>The cost is only an estimate, and a plan with cost 0 may still match documents. A plan is
+ * empty when it is known to match nothing, because none of its terms are in the index.
+ */
+public class Plan {
+  private final Expression expression;
+  private final long cost;
+  private final List<Plan> children;
+  private final boolean empty;
+
+  Plan(Expression expression, long cost, List<Plan> children) {
+    this(expression, cost, children, false);
+  }
+
+  Plan(Expression expression, long cost, List<Plan> children, boolean empty) {
+    this.expression = expression;
+    this.cost = cost;
+    this.children = children;
+    this.empty = empty;
+  }
+
+  public Expression getExpression() {
+    return expression;
+  }
+
+  public long getCost() {
+    return cost;
+  }
+
+  public List<Plan> getChildren() {
+    return children;
+  }
+
+  public boolean isEmpty() {
+    return empty;
+  }
+
+  @Override
+  public String toString() {
+    if (children.isEmpty()) {
+      return expression + "~" + cost;
+    }
+    return expression.getValue().getLeft().getOperator()
+        + "~" + cost
+        + children.mkString("(", ", ", ")");
+  }
+}
@@ -0,0 +1,61 @@
+package com.github.audunhalland.parceq.exec;
+
+/**
+ * Iterator over a sorted array of document ids, advancing with galloping search.
+ */
+public class PostingsIterator extends DocIdIterator {
+  private final int[] docs;
+  private final int length;
+  private int index = -1;
+  private int doc = -1;
+
+  public PostingsIterator(int[] docs, int length) {
+    this.docs = docs;
+    this.length = length;
+  }
+
+  @Override
+  public int docId() {
+    return doc;
+  }
+
+  @Override
+  public int nextDoc() {
+    return doc = ++index < length ? docs[index] : NO_MORE_DOCS;
+  }
+
+  @Override
+  public int advance(int target) {
+    if (doc >= target) {
+      return doc;
+    }
+
+    // Gallop to find a range containing target, then binary search within it
+    int low = index + 1;
+    int step = 1;
+    int high = low;
+    while (high < length && docs[high] < target) {
+      low = high + 1;
+      high += step;
+      step <<= 1;
+    }
+    high = Math.min(high, length - 1);
+
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      if (docs[mid] < target) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    index = low;
+    return doc = index < length ? docs[index] : NO_MORE_DOCS;
+  }
+
+  @Override
+  public long cost() {
+    return length;
+  }
+}
@@ -0,0 +1,147 @@
+package com.github.audunhalland.parceq.exec;
+
+import com.github.audunhalland.parceq.Expression;
+import com.github.audunhalland.parceq.ExpressionVisitor;
+import com.github.audunhalland.parceq.Operator;
+import com.github.audunhalland.parceq.Term;
+import io.vavr.Tuple2;
+import io.vavr.collection.List;
+import java.util.ArrayDeque;
+
+/**
+ * Rewrites expressions for execution using document frequencies: operands are ordered by
+ * estimated cardinality so that conjunctions lead with their most selective clause,
+ * {@code NOT} clauses are moved last, a conjunction with a clause that matches nothing is
+ * replaced by an empty term list, and clauses that cannot match are dropped from disjunctions.
+ *
+ * <p>Only clauses whose terms are all missing from the index are known to match nothing.
+ * Estimates are never used to drop clauses, since the estimate of a {@code NOT} can be 0 for
+ * clauses that still match documents.
+ */
+public class QueryPlanner {
+  private final TermStatistics statistics;
+
+  public QueryPlanner(TermStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  // The plans of the operands are made first, on an explicit stack
+  public Plan plan(Expression expression) {
+    final ArrayDeque<Plan> results = new ArrayDeque<>();
+    expression.walk(new ExpressionVisitor() {
+      @Override
+      public void leave(Expression node) {
+        if (node.isTerms()) {
+          results.push(terms(node.getValue().get()));
+          return;
+        }
+
+        final Expression.SubExpression sub = node.getValue().getLeft();
+        List<Plan> plans = List.empty();
+        for (int i = sub.getOperands().size(); i > 0; i--) {
+          plans = plans.prepend(results.pop());
+        }
+        switch (sub.getOperator()) {
+          case AND:
+            results.push(and(sub.getOperands(), plans));
+            break;
+          case NOT:
+            results.push(not(plans));
+            break;
+          case OR:
+          case BOOST:
+            results.push(or(sub.getOperator(), plans));
+            break;
+          case NOOP:
+          default:
+            results.push(new Plan(node, 0, List.empty()));
+            break;
+        }
+      }
+    });
+    return results.pop();
+  }
+
+  private Plan terms(List<Term> terms) {
+    long cost = 0;
+    boolean empty = true;
+    for (Term term : terms) {
+      final int docFreq = statistics.docFreq(term);
+      cost += docFreq;
+      empty &= docFreq == 0;
+    }
+    return new Plan(
+        Expression.of(terms), Math.min(cost, statistics.maxDoc()), List.empty(), empty);
+  }
+
+  private Plan or(Operator operator, List<Plan> operands) {
+    final List<Plan> children = operands
+        .filter(plan -> !plan.isEmpty())
+        .sortBy(Plan::getCost);
+    if (children.isEmpty()) {
+      return empty();
+    }
+    final long cost = Math.min(children.map(Plan::getCost).sum().longValue(),
+        statistics.maxDoc());
+    return new Plan(
+        Expression.of(operator, children.map(Plan::getExpression)), cost, children);
+  }
+
+  // Operands that match nothing exclude nothing, and a NOT without operands matches all
+  private Plan not(List<Plan> operands) {
+    final List<Plan> children = operands
+        .filter(plan -> !plan.isEmpty())
+        .sortBy(Plan::getCost);
+    final long excluded = Math.min(children.map(Plan::getCost).sum().longValue(),
+        statistics.maxDoc());
+    return new Plan(
+        Expression.of(Operator.NOT, children.map(Plan::getExpression)),
+        statistics.maxDoc() - excluded, children);
+  }
+
+  private Plan and(List<Expression> operands, List<Plan> plans) {
+    final List<Tuple2<Expression, Plan>> pairs = operands.zip(plans);
+    final List<Plan> required = pairs
+        .filter(pair -> !pair._1.isNot() && !isBoost(pair._1))
+        .map(Tuple2::_2)
+        .sortBy(Plan::getCost);
+    final boolean hasBoosts = operands.exists(QueryPlanner::isBoost);
+    final List<Plan> boosts = pairs
+        .filter(pair -> isBoost(pair._1))
+        .map(Tuple2::_2)
+        .filter(plan -> !plan.isEmpty())
+        .sortBy(Plan::getCost);
+    final List<Plan> nots = pairs
+        .filter(pair -> pair._1.isNot())
+        .map(Tuple2::_2)
+        .filter(plan -> !plan.getChildren().isEmpty())
+        .sortBy(Plan::getCost);
+
+    // A NOT that excludes nothing is always true and has been dropped above
+    if (required.exists(Plan::isEmpty) || (required.isEmpty() && hasBoosts && boosts.isEmpty())) {
+      return empty();
+    }
+
+    final long cost;
+    if (!required.isEmpty()) {
+      cost = required.head().getCost();
+    } else if (!boosts.isEmpty()) {
+      cost = Math.min(boosts.map(Plan::getCost).sum().longValue(), statistics.maxDoc());
+    } else {
+      cost = statistics.maxDoc();
+    }
+
+    final List<Plan> children = required.appendAll(boosts).appendAll(nots);
+    return new Plan(
+        Expression.of(Operator.AND, children.map(Plan::getExpression)), cost, children);
+  }
+
+  private static Plan empty() {
+    return new Plan(Expression.of(List.empty()), 0, List.empty(), true);
+  }
+
+  private static boolean isBoost(Expression expression) {
+    return expression.isCompound()
+        && expression.getValue().getLeft().getOperator() == Operator.BOOST;
+  }
+}
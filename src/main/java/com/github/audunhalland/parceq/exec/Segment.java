@@ -0,0 +1,136 @@
+package com.github.audunhalland.parceq.exec;
+
+import com.github.audunhalland.parceq.Term;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only index segment memory mapped from a file written by {@link SegmentWriter}.
+ *
+ * <p>Opening a segment only maps the file and reads the header, and all lookups and postings
+ * decoding work directly on the mapping, so the segment does not need to fit in the heap.
+ *
+ * <p>File layout, little endian:
+ * <pre>
+ *   header: magic, version, maxDoc, termCount (ints), termBytesOffset, postingsOffset (longs)
+ *   term start offsets: termCount + 1 ints, relative to termBytesOffset
+ *   term postings regions: termCount ints, in longs relative to postingsOffset
+ *   term bytes: UTF-8 term keys in unsigned byte order, "field\0value" for terms with a field
+ *   postings: {@link BlockPostings} regions, 8 byte aligned
+ * </pre>
+ */
+public class Segment implements Index, Closeable {
+  static final int MAGIC = 0x50515331;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 32;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  private final LongBuffer postings;
+  private final int maxDoc;
+  private final int termCount;
+  private final int termBytesOffset;
+
+  private Segment(FileChannel channel, MappedByteBuffer buffer) throws IOException {
+    this.channel = channel;
+    this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (this.buffer.getInt(0) != MAGIC || this.buffer.getInt(4) != VERSION) {
+      throw new IOException("Not a segment file of version " + VERSION);
+    }
+    this.maxDoc = this.buffer.getInt(8);
+    this.termCount = this.buffer.getInt(12);
+    this.termBytesOffset = (int) this.buffer.getLong(16);
+    final int postingsOffset = (int) this.buffer.getLong(24);
+
+    final ByteBuffer postingsBytes = this.buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    postingsBytes.position(postingsOffset);
+    this.postings = postingsBytes.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+  }
+
+  public static Segment open(Path path) throws IOException {
+    final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      return new Segment(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public int maxDoc() {
+    return maxDoc;
+  }
+
+  public int termCount() {
+    return termCount;
+  }
+
+  @Override
+  public int docFreq(Term term) {
+    final int ordinal = lookup(TermKey.utf8(term));
+    return ordinal < 0 ? 0 : BlockPostings.count(postings, region(ordinal));
+  }
+
+  @Override
+  public DocIdIterator postings(Term term) {
+    final int ordinal = lookup(TermKey.utf8(term));
+    return ordinal < 0
+        ? DocIdIterator.empty()
+        : new BlockPostingsIterator(postings, region(ordinal));
+  }
+
+  /**
+   * Binary search the term dictionary, returning the term ordinal or -1 if absent.
+   */
+  int lookup(byte[] term) {
+    int low = 0;
+    int high = termCount - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int cmp = compareTerm(mid, term);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private int compareTerm(int ordinal, byte[] term) {
+    final int start = termBytesOffset + termStart(ordinal);
+    final int length = termStart(ordinal + 1) - termStart(ordinal);
+    final int common = Math.min(length, term.length);
+    for (int i = 0; i < common; i++) {
+      final int cmp = (buffer.get(start + i) & 0xff) - (term[i] & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return length - term.length;
+  }
+
+  private int termStart(int ordinal) {
+    return buffer.getInt(HEADER_SIZE + ordinal * Integer.BYTES);
+  }
+
+  private int region(int ordinal) {
+    return buffer.getInt(HEADER_SIZE + (termCount + 1 + ordinal) * Integer.BYTES);
+  }
+
+  @Override
+  public void close() throws IOException {
+    // The mapping itself is released when the buffer is garbage collected
+    channel.close();
+  }
+}
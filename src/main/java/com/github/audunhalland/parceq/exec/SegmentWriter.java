@@ -0,0 +1,106 @@
+package com.github.audunhalland.parceq.exec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Writes an {@link InvertedIndex} in the {@link Segment} file format.
+ */
+public class SegmentWriter {
+  private SegmentWriter() {
+  }
+
+  public static void write(InvertedIndex index, Path path) throws IOException {
+    final TreeMap<byte[], int[]> sorted = new TreeMap<>(SegmentWriter::compareUnsigned);
+    index.postings().forEach((term, docs) ->
+        sorted.put(term.getBytes(StandardCharsets.UTF_8), docs));
+
+    final List<byte[]> terms = new ArrayList<>();
+    final List<long[]> regions = new ArrayList<>();
+    sorted.forEach((term, docs) -> {
+      terms.add(term);
+      regions.add(BlockPostings.encode(docs, docs.length));
+    });
+
+    final int termCount = terms.size();
+    long termBytesLength = 0;
+    for (byte[] term : terms) {
+      termBytesLength += term.length;
+    }
+    final long termBytesOffset = Segment.HEADER_SIZE + (2L * termCount + 1) * Integer.BYTES;
+    final long postingsOffset = align(termBytesOffset + termBytesLength);
+    if (postingsOffset > Integer.MAX_VALUE) {
+      throw new IOException("Term dictionary too large for one segment");
+    }
+
+    try (OutputStream file = Files.newOutputStream(path);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+      writeInt(out, Segment.MAGIC);
+      writeInt(out, Segment.VERSION);
+      writeInt(out, index.maxDoc());
+      writeInt(out, termCount);
+      writeLong(out, termBytesOffset);
+      writeLong(out, postingsOffset);
+
+      int termStart = 0;
+      for (byte[] term : terms) {
+        writeInt(out, termStart);
+        termStart += term.length;
+      }
+      writeInt(out, termStart);
+
+      long region = 0;
+      for (long[] longs : regions) {
+        if (region > Integer.MAX_VALUE) {
+          throw new IOException("Postings too large for one segment");
+        }
+        writeInt(out, (int) region);
+        region += longs.length;
+      }
+
+      for (byte[] term : terms) {
+        out.write(term);
+      }
+      for (long i = termBytesOffset + termBytesLength; i < postingsOffset; i++) {
+        out.write(0);
+      }
+
+      for (long[] longs : regions) {
+        for (long value : longs) {
+          writeLong(out, value);
+        }
+      }
+    }
+  }
+
+  private static long align(long offset) {
+    return (offset + Long.BYTES - 1) & -Long.BYTES;
+  }
+
+  private static int compareUnsigned(byte[] a, byte[] b) {
+    final int common = Math.min(a.length, b.length);
+    for (int i = 0; i < common; i++) {
+      final int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return a.length - b.length;
+  }
+
+  private static void writeInt(DataOutputStream out, int value) throws IOException {
+    out.writeInt(Integer.reverseBytes(value));
+  }
+
+  private static void writeLong(DataOutputStream out, long value) throws IOException {
+    out.writeLong(Long.reverseBytes(value));
+  }
+}
@@ -0,0 +1,58 @@
+package com.github.audunhalland.parceq.exec;
+
+import com.github.audunhalland.parceq.Term;
+import io.vavr.control.Option;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Postings key of a term. A term with a field is keyed by the field name, a NUL character and the
+ * value, so a query term only matches postings of its own field. A term without a field is keyed
+ * by its value, with a leading NUL if the value contains NUL, so it never looks like a term with
+ * a field. Field names must be non-empty and not contain NUL.
+ */
+final class TermKey {
+  static final char SEPARATOR = '\0';
+
+  private TermKey() {
+  }
+
+  static boolean isValidField(String field) {
+    return field != null && !field.isEmpty() && field.indexOf(SEPARATOR) < 0;
+  }
+
+  static String of(String field, String value) {
+    if (field != null) {
+      return field + SEPARATOR + value;
+    }
+    return value.indexOf(SEPARATOR) < 0 ? value : SEPARATOR + value;
+  }
+
+  static String of(Term term) {
+    return of(term.getField().getOrNull(), term.getValue());
+  }
+
+  // Terms of a table have their value bytes without a decoding step
+  static byte[] utf8(Term term) {
+    final byte[] value = term.getTable() != null
+        ? term.getTable().utf8(term.getId())
+        : term.getValue().getBytes(StandardCharsets.UTF_8);
+    final Option<String> field = term.getField();
+    if (field.isDefined()) {
+      return join(field.get().getBytes(StandardCharsets.UTF_8), value);
+    }
+    for (byte b : value) {
+      if (b == SEPARATOR) {
+        return join(new byte[0], value);
+      }
+    }
+    return value;
+  }
+
+  private static byte[] join(byte[] field, byte[] value) {
+    final byte[] key = new byte[field.length + 1 + value.length];
+    System.arraycopy(field, 0, key, 0, field.length);
+    key[field.length] = (byte) SEPARATOR;
+    System.arraycopy(value, 0, key, field.length + 1, value.length);
+    return key;
+  }
+}
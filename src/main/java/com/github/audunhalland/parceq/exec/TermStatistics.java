@@ -0,0 +1,15 @@
+package com.github.audunhalland.parceq.exec;
+
+import com.github.audunhalland.parceq.Term;
+
+public interface TermStatistics {
+  /**
+   * One more than the largest document id.
+   */
+  int maxDoc();
+
+  /**
+   * Number of documents containing the term.
+   */
+  int docFreq(Term term);
+}
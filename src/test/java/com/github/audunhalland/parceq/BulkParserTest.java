@@ -0,0 +1,136 @@
+package com.github.audunhalland.parceq;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+
+import com.github.audunhalland.parceq.ParseLimitExceededException.Limit;
+import io.vavr.collection.Iterator;
+import io.vavr.collection.List;
+import io.vavr.collection.Stream;
+import io.vavr.control.Try;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BulkParserTest {
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private static String query(int i) {
+    return "foo" + i + " -bar" + (i % 7) + " OR baz";
+  }
+
+  private static String nested(int depth) {
+    final StringBuilder query = new StringBuilder();
+    for (int i = 0; i < depth; i++) {
+      query.append('(');
+    }
+    return query.append("foo").toString();
+  }
+
+  @Test
+  public void results_are_in_input_order() {
+    final BulkParser parser = BulkParser.builder()
+        .executor(executor)
+        .batchSize(7)
+        .maxPendingBatches(3)
+        .build();
+    final Iterator<Try<ParceQ>> results =
+        parser.parse(Stream.range(0, 10000).map(BulkParserTest::query));
+    for (int i = 0; i < 10000; i++) {
+      assertThat(results.next().get().getExpression(),
+          equalTo(ParceQ.parse(query(i)).get().getExpression()));
+    }
+    assertThat(results.hasNext(), equalTo(false));
+  }
+
+  @Test
+  public void failures_are_reported_per_query() {
+    final List<Try<ParceQ>> results = BulkParser.builder().executor(executor).batchSize(2).build()
+        .parse(List.of("foo", nested(10000), "bar"))
+        .toList();
+    assertThat(results.map(Try::isSuccess), equalTo(List.of(true, false, true)));
+    assertThat(((ParseLimitExceededException) results.get(1).getCause()).getLimit(),
+        equalTo(Limit.NESTING_DEPTH));
+  }
+
+  @Test
+  public void fatal_errors_are_reported_per_query() {
+    final StringBuilder prefixes = new StringBuilder();
+    for (int i = 0; i < 4000; i++) {
+      prefixes.append("-a ");
+    }
+    // Long prefix chains parse without recursion, so the overflow is raised by the cache
+    final ParseCache overflowing = new ParseCache(100) {
+      @Override
+      public Try<ParceQ> parse(String query) {
+        if (query.equals("overflow")) {
+          throw new StackOverflowError();
+        }
+        return super.parse(query);
+      }
+    };
+    final List<Try<ParceQ>> results = BulkParser.builder()
+        .executor(executor)
+        .cache(overflowing)
+        .batchSize(2)
+        .build()
+        .parse(List.of("foo", "overflow", prefixes.toString(), "bar"))
+        .toList();
+    assertThat(results.map(Try::isSuccess), equalTo(List.of(true, false, true, true)));
+    assertThat(results.get(1).getCause().getCause(), instanceOf(StackOverflowError.class));
+  }
+
+  @Test
+  public void repeated_queries_are_parsed_once_with_cache() {
+    final ParseCache cache = new ParseCache(100);
+    final List<Try<ParceQ>> results = BulkParser.builder()
+        .executor(Runnable::run)
+        .cache(cache)
+        .build()
+        .parse(Stream.range(0, 100).map(i -> query(i % 10)))
+        .toList();
+    assertThat(results.size(), equalTo(100));
+    assertThat(cache.getMissCount(), equalTo(10L));
+    assertThat(cache.getHitCount(), equalTo(90L));
+  }
+
+  @Test
+  public void parses_lines_of_file() throws IOException {
+    final Path file = folder.newFile("queries.txt").toPath();
+    Files.write(file, List.of("foo bar", nested(10000), "title:baz").asJava(),
+        StandardCharsets.UTF_8);
+    final java.util.List<Try<ParceQ>> results = new ArrayList<>();
+
+    assertThat(BulkParser.builder().executor(executor).build().parseFile(file, results::add),
+        equalTo(Try.success(3L)));
+    assertThat(results.get(0).get().getExpression().toString(),
+        equalTo("BOOST(terms(\"foo\"@0, \"bar\"@1))"));
+    assertThat(results.get(1).isFailure(), equalTo(true));
+    assertThat(results.get(2).get().getExpression().toString(),
+        equalTo("BOOST(terms(title:\"baz\"@0))"));
+  }
+
+  @Test
+  public void missing_file_is_a_failure() {
+    final Try<Long> result = BulkParser.builder().build()
+        .parseFile(folder.getRoot().toPath().resolve("missing.txt"), r -> { });
+    assertThat(result.getCause(), instanceOf(IOException.class));
+  }
+}
@@ -0,0 +1,120 @@
+package com.github.audunhalland.parceq;
+
+import static com.github.audunhalland.parceq.ExpressionTestUtil.and;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.boost;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.not;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.termExpr;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import io.vavr.collection.List;
+import io.vavr.control.Try;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class ExpressionCodecTest {
+  private static ParceQ roundTrip(ParceQ query) {
+    return ExpressionCodec.decode(ExpressionCodec.encode(query)).get();
+  }
+
+  @Test
+  public void parsed_queries_round_trip() {
+    for (String query : new String[] {
+        "", "foo", "foo bar", "foo -bar +baz", "a OR b AND -c", "\"a b\" OR (c d) -(e OR f)",
+        "title:foo body:\"a b\" title:(c OR d)", "café über"}) {
+      final ParceQ parsed = ParceQ.parse(query).get();
+      final ParceQ decoded = roundTrip(parsed);
+      assertThat(query, decoded.getExpression(), equalTo(parsed.getExpression()));
+      assertThat(query, decoded.getExpression().toString(),
+          equalTo(parsed.getExpression().toString()));
+    }
+  }
+
+  @Test
+  public void shingles_keep_values_fields_and_roots() {
+    final ParceQ shingled = ParceQ.parse("a b title:c title:d e").get().termShingles(3, " ");
+    final ParceQ decoded = roundTrip(shingled);
+    assertThat(decoded.getExpression(), equalTo(shingled.getExpression()));
+
+    final TermAllocator original = shingled.getTermAllocator();
+    final TermAllocator allocator = decoded.getTermAllocator();
+    assertThat(allocator.size(), equalTo(original.size()));
+    for (int id = 0; id < original.size(); id++) {
+      assertThat(allocator.isDerived(id), equalTo(original.isDerived(id)));
+      assertThat(List.ofAll(allocator.rootIds(id)), equalTo(List.ofAll(original.rootIds(id))));
+      assertThat(allocator.getTable().field(id), equalTo(original.getTable().field(id)));
+    }
+  }
+
+  @Test
+  public void shingled_payload_is_less_than_half_of_the_expression_text() {
+    final ParceQ shingled = ParceQ.parse("the quick brown fox jumps over the lazy dog")
+        .get()
+        .termShingles(3, " ");
+    assertTrue(ExpressionCodec.encode(shingled).remaining()
+        < shingled.getExpression().toString().getBytes(StandardCharsets.UTF_8).length / 2);
+  }
+
+  @Test
+  public void utf8_parsed_terms_round_trip() {
+    final ParceQ parsed = ParceQ.parse(
+        ByteBuffer.wrap("søk title:æøå".getBytes(StandardCharsets.UTF_8)))
+        .get()
+        .termShingles(2, "_");
+    final ParceQ decoded = roundTrip(parsed);
+    assertThat(decoded.getExpression(), equalTo(parsed.getExpression()));
+    assertThat(decoded.getExpression().toString(), equalTo(parsed.getExpression().toString()));
+  }
+
+  @Test
+  public void terms_of_other_allocators_keep_value_and_field() {
+    final Term standalone = new Term(7, "x");
+    final Term fielded = new TermAllocator().createRootTerm("y", "f");
+    final Expression expression = and(
+        Expression.of(List.of(standalone, fielded)),
+        not(termExpr(3, "z")),
+        boost(termExpr(7, "x")),
+        Expression.noop());
+    final ParceQ decoded = roundTrip(new ParceQ(new TermAllocator(), expression));
+
+    final TermTable table = decoded.getTermAllocator().getTable();
+    assertThat(table.size(), equalTo(3));
+    assertThat(table.value(0), equalTo("x"));
+    assertThat(table.field(1).get(), equalTo("f"));
+    assertThat(table.value(2), equalTo("z"));
+    assertThat(decoded.getExpression().getValue().getLeft().getOperands().size(), equalTo(3));
+  }
+
+  @Test
+  public void decoding_moves_past_the_query() {
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+    ExpressionCodec.encode(ParceQ.parse("foo bar").get(), buffer);
+    ExpressionCodec.encode(ParceQ.parse("-baz").get(), buffer);
+    buffer.flip();
+
+    assertThat(ExpressionCodec.decode(buffer).get().getExpression(),
+        equalTo(ParceQ.parse("foo bar").get().getExpression()));
+    assertThat(ExpressionCodec.decode(buffer).get().getExpression(),
+        equalTo(ParceQ.parse("-baz").get().getExpression()));
+    assertThat(buffer.remaining(), equalTo(0));
+  }
+
+  @Test
+  public void malformed_input_fails_without_moving_the_position() {
+    final ByteBuffer encoded = ExpressionCodec.encode(ParceQ.parse("foo OR bar").get());
+    for (int length = 0; length < encoded.remaining(); length++) {
+      final ByteBuffer truncated = ByteBuffer.wrap(encoded.array(), 0, length);
+      final Try<ParceQ> result = ExpressionCodec.decode(truncated);
+      assertTrue(result.isFailure());
+      assertThat(result.getCause(), instanceOf(IllegalArgumentException.class));
+      assertThat(truncated.position(), equalTo(0));
+    }
+
+    final ByteBuffer version = ByteBuffer.wrap(new byte[] {99, 0, 0, 0, 0});
+    assertThat(ExpressionCodec.decode(version).getCause(),
+        instanceOf(IllegalArgumentException.class));
+  }
+}
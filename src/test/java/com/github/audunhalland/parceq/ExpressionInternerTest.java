@@ -0,0 +1,42 @@
+package com.github.audunhalland.parceq;
+
+import static com.github.audunhalland.parceq.ExpressionTestUtil.and;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.not;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.or;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.termExpr;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class ExpressionInternerTest {
+  @Test
+  public void equal_expressions_intern_to_same_instance() {
+    final ExpressionInterner interner = new ExpressionInterner();
+    final Expression a = interner.intern(ParceQ.parse("foo -bar +baz").get().getExpression());
+    final Expression b = interner.intern(ParceQ.parse("foo -bar +baz").get().getExpression());
+    assertThat(b, sameInstance(a));
+  }
+
+  @Test
+  public void identical_subtrees_are_shared() {
+    final ExpressionInterner interner = new ExpressionInterner();
+    final Expression expr = interner.intern(
+        or(
+            and(termExpr(0, "a"), not(termExpr(1, "b"))),
+            and(termExpr(2, "c"), not(termExpr(1, "b")))));
+    final Expression first = expr.getValue().getLeft().operands.get(0);
+    final Expression second = expr.getValue().getLeft().operands.get(1);
+    assertThat(second.getValue().getLeft().operands.get(1),
+        sameInstance(first.getValue().getLeft().operands.get(1)));
+  }
+
+  @Test
+  public void interning_preserves_equality_and_hash_code() {
+    final Expression expr = and(termExpr(0, "a"), or(termExpr(1, "b"), termExpr(2, "c")));
+    final Expression interned = new ExpressionInterner().intern(expr);
+    assertThat(interned, equalTo(expr));
+    assertThat(interned.hashCode(), equalTo(expr.hashCode()));
+  }
+}
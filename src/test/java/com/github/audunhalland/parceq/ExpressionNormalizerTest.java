@@ -0,0 +1,129 @@
+package com.github.audunhalland.parceq;
+
+import static com.github.audunhalland.parceq.ExpressionNormalizer.normalize;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.and;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.boost;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.not;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.or;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.term;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.termExpr;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.termsExpr;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import io.vavr.collection.List;
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.Test;
+
+public class ExpressionNormalizerTest {
+  private static final Expression A = termExpr(0, "a");
+  private static final Expression B = termExpr(1, "b");
+  private static final Expression C = termExpr(2, "c");
+
+  @Test
+  public void flattens_nested_operators() {
+    assertThat(normalize(and(A, and(B, and(C)))), equalTo(and(A, B, C)));
+    assertThat(normalize(or(or(A, B), C)), equalTo(or(A, B, C)));
+  }
+
+  @Test
+  public void unwraps_single_operands() {
+    assertThat(normalize(and(A)), equalTo(A));
+    assertThat(normalize(or(and(A))), equalTo(A));
+  }
+
+  @Test
+  public void removes_duplicates_by_term_value() {
+    assertThat(normalize(and(A, termExpr(5, "a"), B)), equalTo(and(A, B)));
+    assertThat(normalize(termsExpr(term(3, "b"), term(0, "a"), term(1, "b"))),
+        equalTo(termsExpr(term(0, "a"), term(1, "b"))));
+  }
+
+  @Test
+  public void orders_operands_canonically() {
+    assertThat(normalize(or(C, and(B, A), A)), equalTo(normalize(or(A, C, and(A, B)))));
+    assertThat(normalize(and(not(B), C, A)), equalTo(and(A, C, not(B))));
+  }
+
+  @Test
+  public void absorbs_implied_operands() {
+    assertThat(normalize(or(A, and(A, B))), equalTo(A));
+    assertThat(normalize(and(A, or(A, B))), equalTo(A));
+    assertThat(normalize(and(A, termsExpr(term(1, "b"), term(4, "a")))), equalTo(A));
+  }
+
+  @Test
+  public void removes_double_negation() {
+    assertThat(normalize(and(A, not(not(B)))), equalTo(and(A, B)));
+  }
+
+  @Test
+  public void folds_contradictions_into_noop() {
+    assertThat(normalize(and(A, not(A))), equalTo(Expression.noop()));
+    assertThat(normalize(or(and(A, B, not(termExpr(7, "b"))), C)), equalTo(C));
+  }
+
+  @Test
+  public void keeps_required_boosts_unflattened() {
+    // The boost is required in the inner AND but would be optional in the outer one
+    final Expression expression = and(A, and(boost(C), not(B)));
+    assertThat(normalize(expression), equalTo(expression));
+  }
+
+  @Test
+  public void drops_unmatchable_boosts() {
+    final Expression nothing = Expression.of(List.empty());
+    assertThat(normalize(and(A, boost(nothing))), equalTo(A));
+    assertThat(normalize(and(not(A), boost(nothing))), equalTo(Expression.noop()));
+  }
+
+  @Test
+  public void matches_the_same_documents_as_the_original() {
+    final Random random = new Random(7);
+    for (int n = 0; n < 2000; n++) {
+      final Expression expression = randomExpression(random, 3);
+      final Expression normalized = normalize(expression);
+      final Program original = Program.compile(expression);
+      final Program simplified = Program.compile(normalized);
+      for (int words = 0; words < 16; words++) {
+        final BitSet present = present(words);
+        assertThat(expression + " => " + normalized,
+            simplified.matches(present), equalTo(original.matches(present)));
+      }
+      assertThat(normalize(normalized), equalTo(normalized));
+    }
+  }
+
+  // Term ids repeat the four words, so every id with the same value is present together
+  private static BitSet present(int words) {
+    final BitSet present = new BitSet();
+    for (int id = 0; id < 16; id++) {
+      if ((words & (1 << (id % 4))) != 0) {
+        present.set(id);
+      }
+    }
+    return present;
+  }
+
+  private static Expression randomExpression(Random random, int depth) {
+    final int kind = depth == 0 ? 0 : random.nextInt(5);
+    if (kind == 0) {
+      List<Term> terms = List.empty();
+      for (int i = random.nextInt(3); i >= 0; i--) {
+        final int id = random.nextInt(16);
+        terms = terms.append(term(id, String.valueOf((char) ('a' + id % 4))));
+      }
+      return Expression.of(terms);
+    } else if (kind == 4) {
+      return not(randomExpression(random, depth - 1));
+    }
+
+    List<Expression> operands = List.empty();
+    for (int i = random.nextInt(4); i >= 0; i--) {
+      operands = operands.append(randomExpression(random, depth - 1));
+    }
+    return Expression.of(new Operator[] {Operator.AND, Operator.OR, Operator.BOOST}[kind - 1],
+        operands);
+  }
+}
@@ -0,0 +1,92 @@
+package com.github.audunhalland.parceq;
+
+import static com.github.audunhalland.parceq.ExpressionTestUtil.and;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.not;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.or;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.termExpr;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import io.vavr.collection.List;
+import java.io.StringReader;
+import org.junit.Test;
+
+public class ExpressionTest {
+  private static final int DEPTH = 100000;
+
+  private static Expression deep(String value) {
+    Expression expression = termExpr(0, value);
+    for (int i = 0; i < DEPTH; i++) {
+      expression = i % 2 == 0
+          ? Expression.of(Operator.NOT, List.of(expression))
+          : and(expression, termExpr(i, value));
+    }
+    return expression;
+  }
+
+  @Test
+  public void walk_visits_pre_and_post_order() {
+    final StringBuilder order = new StringBuilder();
+    or(termExpr(0, "a"), and(termExpr(1, "b"), termExpr(2, "c"))).walk(new ExpressionVisitor() {
+      @Override
+      public boolean enter(Expression expression) {
+        order.append(expression.isTerms() ? expression.getValue().get().head().getValue() : "(");
+        return !expression.isAnd();
+      }
+
+      @Override
+      public void leave(Expression expression) {
+        order.append(expression.isCompound() ? ")" : "");
+      }
+    });
+    assertThat(order.toString(), equalTo("(a())"));
+  }
+
+  @Test
+  public void transform_replaces_nodes_and_shares_unchanged_subtrees() {
+    final Expression unchanged = and(termExpr(0, "a"), termExpr(1, "b"));
+    final Expression expression = or(unchanged, not(termExpr(2, "c")));
+    final Expression transformed = expression.transform(new ExpressionTransformer() {
+      @Override
+      public Expression before(Expression expression) {
+        return expression.isNot() ? termExpr(3, "d") : expression;
+      }
+    });
+
+    assertThat(transformed, equalTo(or(unchanged, termExpr(3, "d"))));
+    assertThat(transformed.getValue().getLeft().getOperands().head(), sameInstance(unchanged));
+  }
+
+  @Test
+  public void transform_returns_same_instance_when_nothing_changes() {
+    final Expression expression = or(termExpr(0, "a"), termExpr(1, "b"));
+    assertThat(expression.transform(new ExpressionTransformer() {}), sameInstance(expression));
+  }
+
+  @Test
+  public void deep_expressions_do_not_overflow_the_stack() {
+    final Expression a = deep("a");
+    final Expression b = deep("a");
+    assertThat(a.hashCode(), equalTo(b.hashCode()));
+    assertThat(a, equalTo(b));
+    assertThat(a.equals(deep("b")), equalTo(false));
+    assertThat(a.toString().length() > DEPTH, equalTo(true));
+    assertThat(a.flatMapTerms(terms -> Expression.of(terms.append(new Term(-1, "x")))).equals(a),
+        equalTo(false));
+    assertThat(new ExpressionInterner().intern(a), equalTo(b));
+  }
+
+  @Test
+  public void long_prefix_chains_parse_without_recursion() {
+    final StringBuilder query = new StringBuilder();
+    for (int i = 0; i < DEPTH; i++) {
+      query.append("- ");
+    }
+    query.append("foo");
+    assertThat(ParceQ.parse(query.toString()).get().getExpression().toString(),
+        equalTo("AND(terms(\"foo\"@0))"));
+    assertThat(ParceQ.parse(new StringReader(query.toString())).get().getExpression().toString(),
+        equalTo("AND(terms(\"foo\"@0))"));
+  }
+}
@@ -0,0 +1,101 @@
+package com.github.audunhalland.parceq;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import com.github.audunhalland.parceq.ParseLimitExceededException.Limit;
+import io.vavr.control.Try;
+import java.util.Random;
+import org.junit.Test;
+
+public class IncrementalParserTest {
+  private static String expression(Try<ParceQ> result) {
+    return result.get().getExpression().toString();
+  }
+
+  @Test
+  public void typing_keeps_ids_of_unchanged_terms() {
+    final IncrementalParser parser = new IncrementalParser();
+    assertThat(expression(parser.append("foo")), equalTo("BOOST(terms(\"foo\"@0))"));
+    assertThat(expression(parser.append(" ")), equalTo("BOOST(terms(\"foo\"@0))"));
+    assertThat(expression(parser.append("b")), equalTo("BOOST(terms(\"foo\"@0, \"b\"@1))"));
+    assertThat(expression(parser.append("a")), equalTo("BOOST(terms(\"foo\"@0, \"ba\"@2))"));
+    assertThat(expression(parser.append("r -baz")),
+        equalTo("AND(NOT(terms(\"baz\"@4)), BOOST(terms(\"foo\"@0, \"bar\"@3)))"));
+    assertThat(parser.getQuery(), equalTo("foo bar -baz"));
+  }
+
+  @Test
+  public void deleting_keeps_ids_of_remaining_terms() {
+    final IncrementalParser parser = new IncrementalParser();
+    parser.parse("foo bar baz");
+    assertThat(expression(parser.deleteAtEnd(1)),
+        equalTo("BOOST(terms(\"foo\"@0, \"bar\"@1, \"ba\"@3))"));
+    assertThat(expression(parser.deleteAtEnd(3)), equalTo("BOOST(terms(\"foo\"@0, \"bar\"@1))"));
+  }
+
+  @Test
+  public void words_that_become_fields_get_new_terms() {
+    final IncrementalParser parser = new IncrementalParser();
+    parser.parse("foo title:");
+    assertThat(expression(parser.append("bar")),
+        equalTo("BOOST(terms(\"foo\"@0, title:\"bar\"@2))"));
+  }
+
+  @Test
+  public void unchanged_subtrees_are_shared() {
+    final IncrementalParser parser = new IncrementalParser();
+    final Expression before = parser.parse("(a AND b) OR c").get().getExpression();
+    final Expression after = parser.append("d").get().getExpression();
+    assertThat(after.getValue().getLeft().getOperands().head(),
+        sameInstance(before.getValue().getLeft().getOperands().head()));
+  }
+
+  @Test
+  public void failed_parse_keeps_previous_query() {
+    final IncrementalParser parser =
+        new IncrementalParser(ParseLimits.builder().maxTermCount(2).build());
+    parser.parse("foo bar");
+    assertThat(((ParseLimitExceededException) parser.append(" baz").getCause()).getLimit(),
+        equalTo(Limit.TERM_COUNT));
+    assertThat(parser.getQuery(), equalTo("foo bar"));
+    assertThat(expression(parser.deleteAtEnd(1)),
+        equalTo("BOOST(terms(\"foo\"@0, \"ba\"@2))"));
+  }
+
+  @Test
+  public void edits_parse_like_whole_queries() {
+    final String alphabet = "ab :()\"\\-+";
+    final Random random = new Random(7);
+    final IncrementalParser parser = new IncrementalParser();
+    for (int i = 0; i < 5000; i++) {
+      final String query = parser.getQuery();
+      final Try<ParceQ> result = query.isEmpty() || random.nextInt(3) > 0
+          ? parser.append(String.valueOf(alphabet.charAt(random.nextInt(alphabet.length()))))
+          : parser.deleteAtEnd(1 + random.nextInt(query.length()));
+      assertThat(parser.getQuery(), result.get().getExpression(),
+          equalTo(renumbered(result.get(), ParceQ.parse(parser.getQuery()).get())));
+    }
+  }
+
+  // The expression of the reference parse, with the term ids of the incremental one
+  private static Expression renumbered(ParceQ incremental, ParceQ reference) {
+    final java.util.Iterator<Term> ids = terms(incremental.getExpression()).iterator();
+    return reference.getExpression().flatMapTerms(terms -> Expression.of(terms.map(term -> {
+      final Term id = ids.next();
+      return term.getValue().equals(id.getValue()) && term.getField().equals(id.getField())
+          ? id
+          : term;
+    })));
+  }
+
+  private static java.util.List<Term> terms(Expression expression) {
+    final java.util.List<Term> terms = new java.util.ArrayList<>();
+    expression.flatMapTerms(list -> {
+      terms.addAll(list.asJava());
+      return Expression.of(list);
+    });
+    return terms;
+  }
+}
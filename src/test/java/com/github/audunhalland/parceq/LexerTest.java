@@ -7,8 +7,13 @@ import com.github.audunhalland.parceq.Token.Type;
 import io.vavr.Tuple2;
 import io.vavr.collection.List;
 import io.vavr.control.Try;
+import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.Random;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -37,6 +42,11 @@ public class LexerTest {
             .map(Token::getType)
             .asJava(),
         equalTo(Collections.singletonList(Token.Type.EOF)));
+    assertThat(
+        lexer.tokenize(query).toStream()
+            .map(Token::getType)
+            .asJava(),
+        equalTo(Collections.singletonList(Token.Type.EOF)));
   }
 
   private void assertTokens(String query, Token ... tokens) {
@@ -48,6 +58,14 @@ public class LexerTest {
         equalTo(List.of(tokens)
             .map(LexerTest::tokenToTuple)
             .asJava()));
+    assertThat(
+        "array lexer: " + query,
+        lexer.tokenize(query).toStream()
+            .map(LexerTest::tokenToTuple)
+            .asJava(),
+        equalTo(List.of(tokens)
+            .map(LexerTest::tokenToTuple)
+            .asJava()));
   }
 
   private static Token word(String word) {
@@ -58,6 +76,10 @@ public class LexerTest {
     return new Token(type, value);
   }
 
+  private static Token field(String name) {
+    return new Token(Token.Type.FIELD, name);
+  }
+
   @Test
   public void empty_and_whitespace_only_has_no_tokens() {
     assertEof("");
@@ -156,4 +178,161 @@ public class LexerTest {
     assertTokens("føø bær", word("føø"), word("bær"), EOF);
   }
 
+  @Test
+  public void escape_before_whitespace_carries_over_to_next_word() {
+    assertTokens("\\ abc", word("\\abc"), EOF);
+    assertTokens("\\  -", word("-"), EOF);
+  }
+
+  @Test
+  public void array_tokens_are_slices_of_the_input() {
+    final TokenBuffer tokens = lexer.tokenize("foo b\\(ar \"baz\"");
+    assertThat(tokens.size(), equalTo(4));
+    assertThat(tokens.isSourceSlice(0), equalTo(true));
+    assertThat(tokens.start(0), equalTo(0));
+    assertThat(tokens.length(0), equalTo(3));
+    assertThat("escaped paren is dropped from value", tokens.isSourceSlice(1), equalTo(false));
+    assertThat(tokens.value(1), equalTo("b(ar"));
+    assertThat(tokens.isSourceSlice(2), equalTo(true));
+    assertThat(tokens.start(2), equalTo(11));
+    assertThat(tokens.value(2), equalTo("baz"));
+    assertThat(tokens.type(3), equalTo(Type.EOF));
+  }
+
+  @Test
+  public void tokenizes_fields() {
+    assertTokens("title:foo", field("title"), word("foo"), EOF);
+    assertTokens("title:\"foo bar\"", field("title"), word("foo bar"), EOF);
+    assertTokens("title:(a b)",
+        field("title"), LEFT_PAREN, word("a"), word("b"), RIGHT_PAREN, EOF);
+    assertTokens("a:b:c", field("a"), field("b"), word("c"), EOF);
+    assertTokens("-title:foo", PREFIX_AND_NOT, field("title"), word("foo"), EOF);
+  }
+
+  @Test
+  public void colons_without_field_name_or_value_are_part_of_words() {
+    assertTokens(":foo", word(":foo"), EOF);
+    assertTokens("foo:", word("foo:"), EOF);
+    assertTokens("foo: bar", word("foo:"), word("bar"), EOF);
+    assertTokens("\"a:b\"", word("a:b"), EOF);
+  }
+
+  @Test
+  public void escaped_colons_are_part_of_words() {
+    assertTokens("a\\:b", word("a:b"), EOF);
+    assertTokens("\\:a", word(":a"), EOF);
+    assertTokens("a\\:", word("a:"), EOF);
+  }
+
+  @Test
+  public void tokenizes_utf8_bytes_like_strings() {
+    final List<String> queries =
+        List.of("blåbær -\\\"ørret\" OR (smørbrød title:æ)", "\"λ x\" \\λ \ud83d\ude00");
+    for (String query : queries) {
+      final TokenBuffer tokens =
+          lexer.tokenize(ByteBuffer.wrap(query.getBytes(StandardCharsets.UTF_8)));
+      assertThat(tokens.isUtf8(), equalTo(true));
+      assertThat(query, tokens.toStream().map(LexerTest::tokenToTuple).asJava(),
+          equalTo(lexer.tokenize(query).toStream().map(LexerTest::tokenToTuple).asJava()));
+    }
+  }
+
+  @Test
+  public void byte_offsets_are_relative_to_buffer_position() {
+    final ByteBuffer buffer = ByteBuffer.wrap("xxæ b".getBytes(StandardCharsets.UTF_8));
+    buffer.position(2);
+    final TokenBuffer tokens = lexer.tokenize(buffer);
+    assertThat(buffer.position(), equalTo(2));
+    assertThat(tokens.start(1), equalTo(3));
+    assertThat(tokens.length(0), equalTo(2));
+    assertThat(tokens.value(0), equalTo("æ"));
+    assertThat(tokens.valueEquals(0, "æ"), equalTo(true));
+  }
+
+  @Test
+  public void reads_large_input_in_chunks() {
+    final StringBuilder query = new StringBuilder();
+    for (int i = 0; query.length() < 100000; i++) {
+      query.append("word").append(i).append(i % 5 == 0 ? " -\"a \\\" b\" " : " (c\\ d:e) ");
+    }
+    assertThat(
+        lexer.tokenStream(new StringReader(query.toString()))
+            .map(Try::get).map(LexerTest::tokenToTuple).toJavaList(),
+        equalTo(lexer.tokenize(query).toStream().map(LexerTest::tokenToTuple).toJavaList()));
+  }
+
+  @Test
+  public void token_stream_only_reads_as_far_as_it_is_evaluated() {
+    // Endless input of words
+    final Reader endless = new Reader() {
+      @Override
+      public int read(char[] buffer, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+          buffer[offset + i] = i % 2 == 0 ? 'a' : ' ';
+        }
+        return length;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    assertThat(lexer.tokenStream(endless).take(3).map(Try::get).map(Token::getValue).toJavaList(),
+        equalTo(List.of("a", "a", "a").toJavaList()));
+  }
+
+  @Test
+  public void read_failure_ends_stream_after_tokens_read_before_it() {
+    final IOException error = new IOException();
+    final Reader failing = new Reader() {
+      private boolean failed;
+
+      @Override
+      public int read(char[] buffer, int offset, int length) throws IOException {
+        if (failed) {
+          throw error;
+        }
+        failed = true;
+        "foo (bar".getChars(0, 8, buffer, offset);
+        return 8;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    final List<Try<Token>> tokens = lexer.tokenStream(failing).toList();
+    assertThat(tokens.init().map(Try::get).map(LexerTest::tokenToTuple).toJavaList(),
+        equalTo(List.of(word("foo"), LEFT_PAREN).map(LexerTest::tokenToTuple).toJavaList()));
+    assertThat(tokens.last().getCause(), equalTo(error));
+  }
+
+  @Test
+  public void tokenizes_char_arrays() {
+    assertThat(
+        lexer.tokenize("foo OR bar".toCharArray()).toStream()
+            .map(LexerTest::tokenToTuple)
+            .asJava(),
+        equalTo(List.of(word("foo"), token(Type.INFIX_OR, "OR"), word("bar"), EOF)
+            .map(LexerTest::tokenToTuple)
+            .asJava()));
+  }
+
+  @Test
+  public void array_and_stream_lexers_agree_on_random_input() {
+    final String alphabet = "ab \\\"():+-ANDOR|&\u00e9\t";
+    final Random random = new Random(7);
+    for (int i = 0; i < 10000; i++) {
+      final StringBuilder query = new StringBuilder();
+      for (int length = random.nextInt(12); length > 0; length--) {
+        query.append(alphabet.charAt(random.nextInt(alphabet.length())));
+      }
+      assertThat(query.toString(),
+          lexer.tokenize(query).toStream().map(LexerTest::tokenToTuple).asJava(),
+          equalTo(lexer.tokenStream(new StringReader(query.toString()))
+              .map(Try::get)
+              .map(LexerTest::tokenToTuple)
+              .asJava()));
+    }
+  }
 }
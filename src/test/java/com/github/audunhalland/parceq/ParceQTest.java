@@ -15,6 +15,9 @@ import io.vavr.control.Try;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.hamcrest.core.IsSame;
 import org.junit.Test;
 
@@ -26,6 +29,47 @@ public class ParceQTest {
     assertThat(parceq.isSuccess(), equalTo(true));
   }
 
+  @Test
+  public void parse_of_string_equals_parse_of_reader() {
+    final String query = "foo -\"bar baz\" +qux\\( OR quux";
+    assertThat(ParceQ.parse(query).get().getExpression(),
+        equalTo(ParceQ.parse(new StringReader(query)).get().getExpression()));
+  }
+
+  @Test
+  public void context_can_be_reused_between_parses() {
+    final ParceQ.Context context = new ParceQ.Context();
+    for (String query : new String[] {"foo bar", "\"a b\" -c", "x\\(y OR z", "foo bar"}) {
+      assertThat(context.parse(query).get().getExpression(),
+          equalTo(ParceQ.parse(new StringReader(query)).get().getExpression()));
+      assertThat(context.parse(new StringReader(query)).get().getExpression(),
+          equalTo(ParceQ.parse(new StringReader(query)).get().getExpression()));
+    }
+  }
+
+  @Test
+  public void pooled_parse_is_safe_from_concurrent_threads() throws InterruptedException {
+    final String[] queries = {"a b c", "-foo +bar baz", "x OR y AND z", "\"quoted words\" tail"};
+    final AtomicInteger mismatches = new AtomicInteger();
+    final Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 2000; i++) {
+          final String query = queries[i % queries.length];
+          if (!ParceQ.parse(query).get().getExpression().equals(
+              ParceQ.parse(new StringReader(query)).get().getExpression())) {
+            mismatches.incrementAndGet();
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(mismatches.get(), equalTo(0));
+  }
+
   @Test
   public void parse_of_failing_input_yields_io_exception() {
     final IOException error = new IOException();
@@ -44,6 +88,20 @@ public class ParceQTest {
     assertThat(parceq.getCause(), IsSame.sameInstance(error));
   }
 
+  @Test
+  public void parse_of_utf8_bytes_equals_parse_of_string() {
+    final String query = "blåbær -\"ørret fisk\" OR (smørbrød title:æ\\ø)";
+    final byte[] bytes = query.getBytes(StandardCharsets.UTF_8);
+    final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+    direct.flip();
+
+    final Expression expected = ParceQ.parse(query).get().getExpression();
+    assertThat(ParceQ.parse(ByteBuffer.wrap(bytes)).get().getExpression(), equalTo(expected));
+    assertThat(ParceQ.parse(direct).get().getExpression(), equalTo(expected));
+    assertThat(ParceQ.parse(direct).get().getExpression().hashCode(),
+        equalTo(expected.hashCode()));
+  }
+
   @Test
   public void generates_shingles() {
     final TermAllocator a = new TermAllocator();
@@ -68,4 +126,20 @@ public class ParceQTest {
                 term(8, "c d"),
                 term(3, "d"))));
   }
+
+  @Test
+  public void shingles_only_join_terms_of_the_same_field() {
+    final ParceQ result = ParceQ.parse("title:a title:b c d").get().termShingles(2, "_");
+    assertThat(result.getExpression().toString(), equalTo(
+        "BOOST(terms(title:\"a\"@0, title:\"a_b\"@4, title:\"b\"@1, "
+            + "\"c\"@2, \"c_d\"@5, \"d\"@3))"));
+  }
+
+  @Test
+  public void shingle_values_do_not_leak_between_term_lists() {
+    final ParceQ result = ParceQ.parse("a b c OR d e").get().termShingles(2, "_");
+    assertThat(result.getExpression().toString(), equalTo(
+        "OR(terms(\"a\"@0, \"a_b\"@5, \"b\"@1, \"b_c\"@6, \"c\"@2), "
+            + "terms(\"d\"@3, \"d_e\"@7, \"e\"@4))"));
+  }
 }
@@ -0,0 +1,64 @@
+package com.github.audunhalland.parceq;
+
+import static com.github.audunhalland.parceq.ExpressionTestUtil.boost;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.term;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.termsExpr;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class ParseCacheTest {
+  @Test
+  public void counts_hits_and_misses() {
+    final ParseCache cache = new ParseCache(10);
+    cache.parse("foo bar");
+    cache.parse("foo bar");
+    cache.parse("baz");
+    assertThat(cache.getMissCount(), equalTo(2L));
+    assertThat(cache.getHitCount(), equalTo(1L));
+    assertThat(cache.size(), equalTo(2));
+  }
+
+  @Test
+  public void cached_result_equals_fresh_parse() {
+    final ParseCache cache = new ParseCache(10);
+    final String query = "a -b +\"c d\" OR e";
+    cache.parse(query);
+    assertThat(cache.parse(query).get().getExpression(),
+        equalTo(ParceQ.parse(query).get().getExpression()));
+  }
+
+  @Test
+  public void evicts_least_recently_used() {
+    final ParseCache cache = new ParseCache(2);
+    cache.parse("a");
+    cache.parse("b");
+    cache.parse("a");
+    cache.parse("c");
+    assertThat(cache.size(), equalTo(2));
+    assertThat(cache.getEvictionCount(), equalTo(1L));
+    cache.parse("a");
+    assertThat(cache.getHitCount(), equalTo(2L));
+    cache.parse("b");
+    assertThat(cache.getMissCount(), equalTo(4L));
+  }
+
+  @Test
+  public void results_from_the_cache_allocate_terms_independently() {
+    final ParseCache cache = new ParseCache(10);
+    final ParceQ first = cache.parse("a b").get();
+    final ParceQ second = cache.parse("a b").get();
+    first.termShingles(2, " ");
+    assertThat(second.termShingles(2, " ").getExpression(),
+        equalTo(boost(termsExpr(term(0, "a"), term(2, "a b"), term(1, "b")))));
+  }
+
+  @Test
+  public void normalizes_insignificant_whitespace() {
+    assertThat(ParseCache.normalize("  foo bar  "), equalTo("foo bar"));
+    assertThat(ParseCache.normalize("foo\\\\  "), equalTo("foo\\\\  "));
+    assertThat(ParseCache.normalize("\"foo  "), equalTo("\"foo  "));
+    assertThat(ParseCache.normalize("   "), equalTo(""));
+  }
+}
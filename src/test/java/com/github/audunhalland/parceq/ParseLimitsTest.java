@@ -0,0 +1,96 @@
+package com.github.audunhalland.parceq;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+
+import com.github.audunhalland.parceq.ParseLimitExceededException.Limit;
+import io.vavr.control.Try;
+import java.io.StringReader;
+import org.junit.Test;
+
+public class ParseLimitsTest {
+  private static Limit exceededLimit(Try<?> result) {
+    assertThat(result.isFailure(), equalTo(true));
+    assertThat(result.getCause(), instanceOf(ParseLimitExceededException.class));
+    return ((ParseLimitExceededException) result.getCause()).getLimit();
+  }
+
+  @Test
+  public void parses_normally_within_limits() {
+    final ParseLimits limits = ParseLimits.builder()
+        .maxInputLength(20)
+        .maxTermCount(3)
+        .maxNestingDepth(2)
+        .maxNodeCount(5)
+        .build();
+    assertThat(ParceQ.parse("foo -bar baz", limits).get().getExpression(),
+        equalTo(ParceQ.parse("foo -bar baz").get().getExpression()));
+  }
+
+  @Test
+  public void rejects_long_input() {
+    final ParseLimits limits = ParseLimits.builder().maxInputLength(10).build();
+    assertThat(exceededLimit(ParceQ.parse("0123456789 foo", limits)), equalTo(Limit.INPUT_LENGTH));
+    assertThat(exceededLimit(ParceQ.parse(new StringReader("0123456789 foo"), limits)),
+        equalTo(Limit.INPUT_LENGTH));
+  }
+
+  @Test
+  public void rejects_too_many_terms() {
+    final ParseLimits limits = ParseLimits.builder().maxTermCount(2).build();
+    assertThat(ParceQ.parse("a AND b", limits).isSuccess(), equalTo(true));
+    assertThat(exceededLimit(ParceQ.parse("a \"b c\" d", limits)), equalTo(Limit.TERM_COUNT));
+  }
+
+  @Test
+  public void rejects_deep_nesting() {
+    final ParseLimits limits = ParseLimits.builder().maxNestingDepth(2).build();
+    assertThat(ParceQ.parse("a AND b", limits).isSuccess(), equalTo(true));
+    assertThat(exceededLimit(ParceQ.parse("a AND b OR c -d", limits)),
+        equalTo(Limit.NESTING_DEPTH));
+  }
+
+  @Test
+  public void rejects_too_many_nodes() {
+    final ParseLimits limits = ParseLimits.builder().maxNodeCount(4).build();
+    assertThat(ParceQ.parse("a AND b", limits).isSuccess(), equalTo(true));
+    assertThat(exceededLimit(ParceQ.parse("- - - - - a", limits)), equalTo(Limit.NODE_COUNT));
+  }
+
+  @Test
+  public void rejects_large_shingle_expansion() {
+    final ParseLimits limits = ParseLimits.builder().maxShingleExpansion(6).build();
+    // Three terms have three unigrams, two bigrams and one trigram
+    assertThat(ParceQ.parse("a b c", limits).map(q -> q.termShingles(3, " ")).isSuccess(),
+        equalTo(true));
+    assertThat(exceededLimit(ParceQ.parse("a b c d", limits).map(q -> q.termShingles(3, " "))),
+        equalTo(Limit.SHINGLE_EXPANSION));
+  }
+
+  @Test
+  public void rejects_deeply_nested_groups_without_limits() {
+    final StringBuilder query = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      query.append('(');
+    }
+    assertThat(exceededLimit(ParceQ.parse(query.append("foo").toString())),
+        equalTo(Limit.NESTING_DEPTH));
+  }
+
+  @Test
+  public void parses_long_prefix_chains_without_limits() {
+    final StringBuilder query = new StringBuilder();
+    for (int i = 0; i < 4000; i++) {
+      query.append("-a ");
+    }
+    assertThat(ParceQ.parse(query.toString()).isSuccess(), equalTo(true));
+    assertThat(ParceQ.parse(new StringReader(query.toString())).isSuccess(), equalTo(true));
+    assertThat(ParceQ.parse(query.append("b").toString()).isSuccess(), equalTo(true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void limits_must_be_positive() {
+    ParseLimits.builder().maxTermCount(0);
+  }
+}
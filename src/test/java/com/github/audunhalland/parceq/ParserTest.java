@@ -11,6 +11,7 @@ import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertThat;
 
 import com.github.audunhalland.parceq.Token.Type;
+import io.vavr.collection.List;
 import io.vavr.collection.Stream;
 import org.junit.Test;
 
@@ -19,6 +20,8 @@ public class ParserTest {
   private static final Token PREFIX_ANDNOT = new Token(Type.PREFIX_ANDNOT, "-");
   private static final Token INFIX_AND = new Token(Type.INFIX_AND, "&&");
   private static final Token INFIX_OR = new Token(Type.INFIX_OR, "||");
+  private static final Token LEFT_PAREN = new Token(Type.LEFT_PAREN, "(");
+  private static final Token RIGHT_PAREN = new Token(Type.RIGHT_PAREN, ")");
   private static final Token EOF = new Token(Type.EOF, "");
 
   private static Token token(String value) {
@@ -138,8 +141,73 @@ public class ParserTest {
                 or(termExpr(2, "baz"), termExpr(3, "qux")))));
   }
 
+  @Test
+  public void parses_token_buffer_like_token_stream() {
+    final TokenBuffer tokens = new Lexer().tokenize("foo -bar +baz OR qux && \\-quux");
+    assertThat(new Parser(new TermAllocator()).parse(tokens),
+        equalTo(new Parser(new TermAllocator()).parse(tokens.toStream())));
+  }
+
   @Test
   public void parentheses_control_precedence() {
+    assertThat(parse(
+        token("foo"), INFIX_OR, LEFT_PAREN, token("bar"), INFIX_AND, token("baz"), RIGHT_PAREN, EOF),
+        equalTo(
+            or(termExpr(0, "foo"),
+            and(termExpr(1, "bar"), termExpr(2, "baz")))));
+    assertThat(parse(
+        PREFIX_ANDNOT, LEFT_PAREN, token("foo"), token("bar"), RIGHT_PAREN, token("baz"), EOF),
+        equalTo(
+            and(
+                not(termsExpr(term(0, "foo"), term(1, "bar"))),
+                boost(termExpr(2, "baz")))));
+  }
 
+  @Test
+  public void juxtaposed_groups_are_or_ed() {
+    assertThat(parse(
+        token("foo"), LEFT_PAREN, token("bar"), INFIX_AND, token("baz"), RIGHT_PAREN, EOF),
+        equalTo(
+            or(termExpr(0, "foo"),
+            and(termExpr(1, "bar"), termExpr(2, "baz")))));
+    assertThat(parse(
+        LEFT_PAREN, token("foo"), RIGHT_PAREN, token("bar"), EOF),
+        equalTo(boost(termsExpr(term(0, "foo"), term(1, "bar")))));
+  }
+
+  @Test
+  public void parses_unbalanced_parentheses_leniently() {
+    assertThat(parse(
+        LEFT_PAREN, token("foo"), EOF),
+        equalTo(boost(termExpr(0, "foo"))));
+    assertThat(parse(
+        token("foo"), RIGHT_PAREN, token("bar"), EOF),
+        equalTo(boost(termsExpr(term(0, "foo"), term(1, "bar")))));
+  }
+
+  @Test
+  public void parses_fields() {
+    assertThat(ParceQ.parse("title:foo bar").get().getExpression().toString(),
+        equalTo("BOOST(terms(title:\"foo\"@0, \"bar\"@1))"));
+    assertThat(ParceQ.parse("-title:\"foo bar\" baz").get().getExpression().toString(),
+        equalTo("AND(NOT(terms(title:\"foo bar\"@0)), BOOST(terms(\"baz\"@1)))"));
+    assertThat("field applies to the terms of a group, unless they have their own",
+        ParceQ.parse("title:(a OR body:b) c").get().getExpression().toString(),
+        equalTo("OR(OR(terms(title:\"a\"@0), terms(body:\"b\"@1)), terms(\"c\"@2))"));
+    assertThat("field is dropped before a prefix operator",
+        ParceQ.parse("title:-foo bar").get().getExpression(),
+        equalTo(ParceQ.parse("-foo bar").get().getExpression()));
+    assertThat(ParceQ.parse("title:+foo bar").get().getExpression(),
+        equalTo(ParceQ.parse("+foo bar").get().getExpression()));
+  }
+
+  @Test
+  public void field_names_are_interned() {
+    final ParceQ query = ParceQ.parse("title:a body:b title:c").get();
+    final List<Term> terms = query.getExpression().getValue().getLeft().getOperands().head()
+        .getValue().get();
+    assertThat(query.getTermAllocator().getTable().fieldCount(), equalTo(2));
+    assertThat(terms.map(Term::getFieldId), equalTo(List.of(0, 1, 0)));
+    assertThat(terms.map(term -> term.getField().get()), equalTo(List.of("title", "body", "title")));
   }
 }
@@ -0,0 +1,86 @@
+package com.github.audunhalland.parceq;
+
+import static com.github.audunhalland.parceq.ExpressionTestUtil.and;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.not;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.or;
+import static com.github.audunhalland.parceq.ExpressionTestUtil.termExpr;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.BitSet;
+import org.junit.Test;
+
+public class ProgramTest {
+  private static BitSet present(int ... termIds) {
+    final BitSet bits = new BitSet();
+    for (int termId : termIds) {
+      bits.set(termId);
+    }
+    return bits;
+  }
+
+  private static Program compile(String query) {
+    return Program.compile(ParceQ.parse(query).get().getExpression());
+  }
+
+  @Test
+  public void terms_match_if_any_term_is_present() {
+    final Program program = compile("foo bar");
+    assertThat(program.matches(present(0)), equalTo(true));
+    assertThat(program.matches(present(1)), equalTo(true));
+    assertThat(program.matches(present(2)), equalTo(false));
+  }
+
+  @Test
+  public void prefix_and_makes_other_terms_optional() {
+    // and(bar, boost(foo))
+    final Program program = compile("foo +bar");
+    assertThat(program.matches(present(1)), equalTo(true));
+    assertThat(program.matches(present(0, 1)), equalTo(true));
+    assertThat(program.matches(present(0)), equalTo(false));
+  }
+
+  @Test
+  public void boost_is_required_when_and_has_only_negations() {
+    // and(not(foo), boost(bar))
+    final Program program = compile("-foo bar");
+    assertThat(program.matches(present(1)), equalTo(true));
+    assertThat(program.matches(present(0, 1)), equalTo(false));
+    assertThat(program.matches(present()), equalTo(false));
+  }
+
+  @Test
+  public void evaluates_nested_operators() {
+    final Program program = Program.compile(
+        or(
+            and(termExpr(0, "a"), termExpr(1, "b")),
+            and(termExpr(2, "c"), not(termExpr(0, "a")))));
+    assertThat(program.matches(present(0, 1)), equalTo(true));
+    assertThat(program.matches(present(2)), equalTo(true));
+    assertThat(program.matches(present(0, 2)), equalTo(false));
+    assertThat(program.toString(), equalTo("#0 #1 ALL/2 #2 #0 NONE/1 ALL/2 ANY/2"));
+    assertThat(program.getTermIds().length, equalTo(3));
+  }
+
+  @Test
+  public void compiles_deep_expressions() {
+    final StringBuilder query = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      query.append("a -b ");
+    }
+    // Every "a" has an even term id and every "b" an odd one
+    final Program program = compile(query.toString());
+    final BitSet words = new BitSet();
+    for (int id = 0; id < 6000; id += 2) {
+      words.set(id);
+    }
+    assertThat(program.matches(words), equalTo(true));
+    words.set(4321);
+    assertThat(program.matches(words), equalTo(false));
+  }
+
+  @Test
+  public void noop_matches_nothing() {
+    assertThat(Program.compile(Expression.noop()).matches(present(0)), equalTo(false));
+  }
+}
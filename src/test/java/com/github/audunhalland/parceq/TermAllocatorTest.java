@@ -0,0 +1,66 @@
+package com.github.audunhalland.parceq;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import io.vavr.collection.List;
+import org.junit.Test;
+
+public class TermAllocatorTest {
+  @Test
+  public void root_terms_cover_themselves() {
+    final TermAllocator allocator = new TermAllocator();
+    final Term a = allocator.createRootTerm("a");
+    assertThat(allocator.isDerived(a.getId()), equalTo(false));
+    assertArrayEquals(new int[] {a.getId()}, allocator.rootIds(a.getId()));
+  }
+
+  @Test
+  public void derived_terms_cover_the_roots_of_their_derivees() {
+    final TermAllocator allocator = new TermAllocator();
+    final Term a = allocator.createRootTerm("a");
+    final Term b = allocator.createRootTerm("b");
+    final Term c = allocator.createRootTerm("c");
+    final Term ab = allocator.createDerivedTerm("a b", List.of(a, b));
+    final Term abc = allocator.createDerivedTerm("a b c", List.of(ab, c));
+
+    assertThat(allocator.isDerived(ab.getId()), equalTo(true));
+    assertThat(allocator.rootCount(abc.getId()), equalTo(3));
+    assertThat(allocator.rootId(abc.getId(), 2), equalTo(c.getId()));
+    assertArrayEquals(new int[] {0, 1, 2}, allocator.rootIds(abc.getId()));
+  }
+
+  @Test
+  public void shingles_record_their_roots() {
+    final ParceQ parceq = ParceQ.parse("a b c").get().termShingles(3, " ");
+    final TermAllocator allocator = parceq.getTermAllocator();
+    assertThat(allocator.size(), equalTo(6));
+    assertArrayEquals(new int[] {1, 2}, allocator.rootIds(5));
+  }
+
+  @Test
+  public void fork_keeps_provenance_and_does_not_share_later_terms() {
+    final TermAllocator allocator = new TermAllocator();
+    for (int i = 0; i < 100; i++) {
+      allocator.createRootTerm("t" + i);
+    }
+    final Term derived = allocator.createDerivedTerm("t0 t1",
+        List.of(new Term(0, "t0"), new Term(1, "t1")));
+
+    final TermAllocator fork = allocator.fork();
+    final Term forked = fork.createDerivedTerm("t1 t0",
+        List.of(new Term(1, "t1"), new Term(0, "t0")));
+    allocator.createRootTerm("other");
+
+    assertThat(forked.getId(), equalTo(101));
+    assertArrayEquals(new int[] {0, 1}, fork.rootIds(derived.getId()));
+    assertArrayEquals(new int[] {1, 0}, fork.rootIds(forked.getId()));
+    assertThat(allocator.isDerived(101), equalTo(false));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknown_ids_are_rejected() {
+    new TermAllocator().rootCount(0);
+  }
+}
@@ -0,0 +1,104 @@
+package com.github.audunhalland.parceq;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class TermTableTest {
+  @Test
+  public void stores_values_back_to_back() {
+    final TermAllocator allocator = new TermAllocator();
+    allocator.createRootTerm(new StringBuilder("foo"));
+    allocator.createRootTerm("");
+    allocator.createRootTerm("barbaz");
+
+    final TermTable table = allocator.getTable();
+    assertThat(table.size(), equalTo(3));
+    assertThat(table.value(0), equalTo("foo"));
+    assertThat(table.valueLength(1), equalTo(0));
+    assertThat(table.charAt(2, 3), equalTo('b'));
+    assertThat(table.valueEquals(2, "barbaz"), equalTo(true));
+    assertThat(table.valueHash(2), equalTo("barbaz".hashCode()));
+    assertThat(table.fieldId(0), equalTo(TermTable.NO_FIELD));
+  }
+
+  @Test
+  public void utf8_values_are_decoded_when_asked_for() {
+    final TermAllocator allocator = new TermAllocator();
+    final byte[] bytes = "ørret".getBytes(StandardCharsets.UTF_8);
+    final StringBuilder units = new StringBuilder();
+    for (byte b : bytes) {
+      units.append((char) (b & 0xff));
+    }
+    allocator.createRootTerm(units, TermTable.NO_FIELD, true);
+    allocator.createRootTerm("ørret");
+    allocator.createRootTerm(new StringBuilder("abc"), TermTable.NO_FIELD, true);
+
+    final TermTable table = allocator.getTable();
+    for (int id = 0; id < 2; id++) {
+      assertThat(table.value(id), equalTo("ørret"));
+      assertThat(table.valueLength(id), equalTo(5));
+      assertThat(table.charAt(id, 0), equalTo('ø'));
+      assertThat(table.valueEquals(id, "ørret"), equalTo(true));
+      assertThat(table.valueHash(id), equalTo("ørret".hashCode()));
+      assertThat(table.utf8(id), equalTo(bytes));
+    }
+    assertThat(table.value(2), equalTo("abc"));
+    assertThat(table.utf8(2), equalTo("abc".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void terms_are_equal_to_standalone_terms() {
+    final TermAllocator allocator = new TermAllocator();
+    final Term view = allocator.createRootTerm(new StringBuilder("foo"));
+    assertThat(view, equalTo(new Term(0, "foo")));
+    assertThat(view.hashCode(), equalTo(new Term(0, "foo").hashCode()));
+    assertThat(view.getValue(), equalTo("foo"));
+    assertThat(view.getField(), equalTo(Option.none()));
+  }
+
+  @Test
+  public void parsed_terms_are_views_on_the_table() {
+    final ParceQ parceq = ParceQ.parse("foo \"bar baz\"").get();
+    final Term term = parceq.getExpression().getValue().getLeft().getOperands()
+        .head().getValue().get().get(1);
+    assertThat(term.getTable(), equalTo(parceq.getTermAllocator().getTable()));
+    assertThat(term.getValue(), equalTo("bar baz"));
+  }
+
+  @Test
+  public void flags_derived_terms() {
+    final TermAllocator allocator = new TermAllocator();
+    final Term a = allocator.createRootTerm("a");
+    final Term b = allocator.createRootTerm("b");
+    allocator.createDerivedTerm("a b", List.of(a, b));
+    assertThat(allocator.getTable().isDerived(1), equalTo(false));
+    assertThat(allocator.getTable().isDerived(2), equalTo(true));
+  }
+
+  @Test
+  public void interns_field_names() {
+    final TermTable table = new TermTable();
+    assertThat(table.internField("title"), equalTo(0));
+    assertThat(table.internField("body"), equalTo(1));
+    assertThat(table.internField("title"), equalTo(0));
+    table.add("x", 1, false);
+    assertThat(table.field(0), equalTo(Option.some("body")));
+    assertThat(table.fieldName(0), equalTo("title"));
+  }
+
+  @Test
+  public void copies_are_independent() {
+    final TermAllocator allocator = new TermAllocator();
+    allocator.createRootTerm("a");
+    final TermAllocator fork = allocator.fork();
+    fork.createRootTerm("b");
+    allocator.createRootTerm("c");
+    assertThat(fork.getTable().value(1), equalTo("b"));
+    assertThat(allocator.getTable().value(1), equalTo("c"));
+  }
+}
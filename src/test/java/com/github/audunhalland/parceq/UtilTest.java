@@ -23,6 +23,31 @@ public class UtilTest {
             List.of(4))));
   }
 
+  @Test
+  public void shingler_does_not_repeat_shingles_of_short_input() {
+    assertThat(
+        Util.shingler(3).apply(List.of(1, 2)),
+        IsEqual.equalTo(List.of(List.of(1), List.of(1, 2), List.of(2))));
+  }
+
+  @Test
+  public void for_each_shingle_emits_windows_in_shingler_order() {
+    final StringBuilder windows = new StringBuilder();
+    Util.forEachShingle(4, 2, (start, end) -> windows.append(start).append(end).append(' '));
+    assertThat(windows.toString(), IsEqual.equalTo("01 02 12 13 23 24 34 "));
+  }
+
+  @Test
+  public void shingle_count_matches_shingles() {
+    for (int count = 0; count < 8; count++) {
+      for (int order = 0; order < 5; order++) {
+        final int[] emitted = new int[1];
+        Util.forEachShingle(count, order, (start, end) -> emitted[0]++);
+        assertEquals(emitted[0], Util.shingleCount(count, order));
+      }
+    }
+  }
+
   @Test
   public void sliding_zipper_works_with_zero_input() {
     assertThat(
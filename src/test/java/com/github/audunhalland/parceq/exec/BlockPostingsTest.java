@@ -0,0 +1,88 @@
+package com.github.audunhalland.parceq.exec;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import com.github.audunhalland.parceq.ParceQ;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class BlockPostingsTest {
+  private static int[] randomDocs(Random random, int length, int maxGap) {
+    final int[] docs = new int[length];
+    int doc = -1;
+    for (int i = 0; i < length; i++) {
+      doc += 1 + random.nextInt(maxGap);
+      docs[i] = doc;
+    }
+    return docs;
+  }
+
+  private static int[] decodeAll(long[] region) {
+    final DocIdIterator iterator = new BlockPostingsIterator(region);
+    final int[] docs = new int[(int) iterator.cost()];
+    for (int i = 0; i < docs.length; i++) {
+      docs[i] = iterator.nextDoc();
+    }
+    assertThat(iterator.nextDoc(), equalTo(DocIdIterator.NO_MORE_DOCS));
+    return docs;
+  }
+
+  @Test
+  public void round_trips_lists_of_any_length() {
+    final Random random = new Random(7);
+    for (int length : new int[] {0, 1, 2, 127, 128, 129, 256, 1000}) {
+      for (int maxGap : new int[] {1, 3, 1000, 1 << 20}) {
+        final int[] docs = randomDocs(random, length, maxGap);
+        assertArrayEquals(docs, decodeAll(BlockPostings.encode(docs, length)));
+      }
+    }
+  }
+
+  @Test
+  public void consecutive_documents_pack_to_zero_bits() {
+    final int[] docs = new int[1024];
+    Arrays.setAll(docs, i -> i);
+    final long[] region = BlockPostings.encode(docs, docs.length);
+    assertThat(region.length, equalTo(1 + 8 + 1));
+    assertArrayEquals(docs, decodeAll(region));
+  }
+
+  @Test
+  public void advance_agrees_with_uncompressed_postings() {
+    final Random random = new Random(11);
+    final int[] docs = randomDocs(random, 5000, 40);
+    final DocIdIterator compressed = new BlockPostingsIterator(BlockPostings.encode(docs, docs.length));
+    final DocIdIterator plain = new PostingsIterator(docs, docs.length);
+    int target = 0;
+    while (true) {
+      final int expected = plain.advance(target);
+      assertThat(compressed.advance(target), equalTo(expected));
+      if (expected == DocIdIterator.NO_MORE_DOCS) {
+        break;
+      }
+      target = expected + random.nextInt(random.nextBoolean() ? 3 : 2000);
+    }
+  }
+
+  @Test
+  public void compressed_index_executes_like_inverted_index() {
+    final Random random = new Random(3);
+    final String[] words = {"a", "b", "c", "d"};
+    final InvertedIndex.Builder builder = new InvertedIndex.Builder();
+    for (int doc = 0; doc < 3000; doc++) {
+      builder.addDocument(Arrays.stream(words)
+          .filter(word -> random.nextInt(4) == 0)
+          .toArray(String[]::new));
+    }
+    for (String query : new String[] {"a b", "a AND b", "+a -c d", "-a", "a AND b AND c OR d"}) {
+      final com.github.audunhalland.parceq.Expression expression =
+          ParceQ.parse(query).get().getExpression();
+      assertArrayEquals(query,
+          new ExpressionExecutor(builder.build()).search(expression),
+          new ExpressionExecutor(builder.buildCompressed()).search(expression));
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package com.github.audunhalland.parceq.exec;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import com.github.audunhalland.parceq.Expression;
+import com.github.audunhalland.parceq.ParceQ;
+import com.github.audunhalland.parceq.Program;
+import com.github.audunhalland.parceq.Term;
+import io.vavr.collection.List;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.Test;
+
+public class ExpressionExecutorTest {
+  private static final String[] WORDS = {"a", "b", "c", "d", "e", "f"};
+
+  private static final InvertedIndex INDEX = new InvertedIndex.Builder() {{
+    addDocument("a", "b");
+    addDocument("a", "c");
+    addDocument("b", "c", "d");
+    addDocument("d");
+    addDocument("a", "b", "c", "d");
+  }}.build();
+
+  private static int[] search(String query) {
+    return new ExpressionExecutor(INDEX).search(ParceQ.parse(query).get().getExpression());
+  }
+
+  @Test
+  public void postings_advance_gallops_to_target() {
+    final PostingsIterator iterator = new PostingsIterator(new int[] {1, 3, 5, 7, 9, 11, 13}, 7);
+    assertThat(iterator.advance(4), equalTo(5));
+    assertThat(iterator.advance(5), equalTo(5));
+    assertThat(iterator.advance(12), equalTo(13));
+    assertThat(iterator.advance(14), equalTo(DocIdIterator.NO_MORE_DOCS));
+  }
+
+  @Test
+  public void executes_terms_as_disjunction() {
+    assertArrayEquals(new int[] {0, 1, 2, 4}, search("b c"));
+  }
+
+  @Test
+  public void executes_conjunction() {
+    assertArrayEquals(new int[] {2, 4}, search("b AND d"));
+  }
+
+  @Test
+  public void boost_operands_are_optional_next_to_required_clauses() {
+    assertArrayEquals(new int[] {0, 1, 4}, search("d +a"));
+  }
+
+  @Test
+  public void executes_negation() {
+    assertArrayEquals(new int[] {0, 1}, search("a -d"));
+  }
+
+  @Test
+  public void terms_only_match_postings_of_their_field() {
+    final InvertedIndex.Builder builder = new InvertedIndex.Builder();
+    builder.addDocument("foo");
+    builder.addDocument();
+    builder.addField("title", "foo");
+    builder.addDocument();
+    builder.addField("body", "foo").addField("title", "bar");
+    builder.addDocument("body\0foo");
+    for (Index index : new Index[] {builder.build(), builder.buildCompressed()}) {
+      final ExpressionExecutor executor = new ExpressionExecutor(index);
+      assertArrayEquals(new int[] {1},
+          executor.search(ParceQ.parse("title:foo").get().getExpression()));
+      assertArrayEquals(new int[] {0},
+          executor.search(ParceQ.parse("foo").get().getExpression()));
+      assertArrayEquals(new int[] {2},
+          executor.search(ParceQ.parse("body:foo title:bar").get().getExpression()));
+      assertThat(index.docFreq(new Term(0, "title\0foo")), equalTo(0));
+      assertThat(index.docFreq(new Term(0, "body\0foo")), equalTo(1));
+    }
+  }
+
+  @Test
+  public void scores_optional_clauses() {
+    final DocIdIterator iterator = new ExpressionExecutor(INDEX)
+        .iterator(ParceQ.parse("d +a").get().getExpression());
+    assertThat(iterator.nextDoc(), equalTo(0));
+    assertThat(iterator.score(), equalTo(1f));
+    assertThat(iterator.advance(4), equalTo(4));
+    assertThat(iterator.score(), equalTo(2f));
+  }
+
+  @Test
+  public void executes_deep_expressions() {
+    final StringBuilder query = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      query.append("a -b ");
+    }
+    assertArrayEquals(new int[] {1}, search(query.toString()));
+  }
+
+  @Test
+  public void agrees_with_compiled_program() {
+    final Random random = new Random(42);
+    final InvertedIndex.Builder builder = new InvertedIndex.Builder();
+    final java.util.List<java.util.Set<String>> documents = new java.util.ArrayList<>();
+    for (int doc = 0; doc < 200; doc++) {
+      final java.util.Set<String> words = new java.util.HashSet<>();
+      for (String word : WORDS) {
+        if (random.nextInt(3) == 0) {
+          words.add(word);
+        }
+      }
+      documents.add(words);
+      builder.addDocument(words.toArray(new String[0]));
+    }
+    final InvertedIndex index = builder.build();
+
+    final String[] operators = {" ", " ", " -", " +", " AND ", " OR "};
+    for (int n = 0; n < 500; n++) {
+      final StringBuilder query = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+      for (int i = random.nextInt(5); i > 0; i--) {
+        query.append(operators[random.nextInt(operators.length)])
+            .append(WORDS[random.nextInt(WORDS.length)]);
+      }
+      final Expression expression = ParceQ.parse(query.toString()).get().getExpression();
+      final Program program = Program.compile(expression);
+      final List<Term> terms = terms(expression);
+
+      final int[] expected = java.util.stream.IntStream.range(0, documents.size())
+          .filter(doc -> {
+            final BitSet present = new BitSet();
+            terms.filter(term -> documents.get(doc).contains(term.getValue()))
+                .forEach(term -> present.set(term.getId()));
+            return program.matches(present);
+          })
+          .toArray();
+      assertThat(query.toString(),
+          Arrays.toString(new ExpressionExecutor(index).search(expression)),
+          equalTo(Arrays.toString(expected)));
+    }
+  }
+
+  private static List<Term> terms(Expression expression) {
+    return expression.getValue().fold(
+        sub -> sub.getOperands().flatMap(ExpressionExecutorTest::terms),
+        terms -> terms);
+  }
+}
@@ -0,0 +1,148 @@
+package com.github.audunhalland.parceq.exec;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import com.github.audunhalland.parceq.Expression;
+import com.github.audunhalland.parceq.Operator;
+import com.github.audunhalland.parceq.ParceQ;
+import com.github.audunhalland.parceq.Term;
+import io.vavr.collection.List;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class QueryPlannerTest {
+  private static final InvertedIndex INDEX = new InvertedIndex.Builder() {{
+    for (int doc = 0; doc < 100; doc++) {
+      addDocument(
+          "common",
+          doc % 2 == 0 ? "half" : "other",
+          doc % 10 == 0 ? "tenth" : "other",
+          doc == 42 ? "single" : "other");
+    }
+  }}.build();
+
+  private static Plan plan(String query) {
+    return new QueryPlanner(INDEX).plan(ParceQ.parse(query).get().getExpression());
+  }
+
+  @Test
+  public void orders_conjunction_by_selectivity() {
+    assertThat(plan("common AND half AND tenth").toString(),
+        equalTo("AND~10(terms(\"tenth\"@2)~10, terms(\"half\"@1)~50, terms(\"common\"@0)~100)"));
+  }
+
+  @Test
+  public void moves_negations_last() {
+    final Plan plan = plan("-tenth half +single");
+    assertThat(plan.getChildren().last().getExpression().isNot(), equalTo(true));
+    assertThat(plan.getChildren().head().getCost(), equalTo(1L));
+  }
+
+  @Test
+  public void short_circuits_conjunction_with_missing_term() {
+    final Plan plan = plan("common AND missing AND half");
+    assertThat(plan.isEmpty(), equalTo(true));
+    assertThat(new ExpressionExecutor(INDEX).search(plan.getExpression()).length, equalTo(0));
+  }
+
+  @Test
+  public void drops_missing_terms_from_disjunction() {
+    assertThat(plan("half OR missing").getChildren().size(), equalTo(1));
+  }
+
+  @Test
+  public void plans_deep_expressions() {
+    final StringBuilder query = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      query.append("half -tenth ");
+    }
+    final Plan plan = plan(query.toString());
+    assertThat(new ExpressionExecutor(INDEX).search(plan.getExpression()).length, equalTo(40));
+  }
+
+  @Test
+  public void planned_expression_matches_same_documents() {
+    for (String query : new String[] {
+        "common AND half AND tenth", "-tenth half +single", "half OR missing", "+half -missing",
+        "tenth -common", "missing +half", "common AND (half OR tenth)"}) {
+      final Expression expression = ParceQ.parse(query).get().getExpression();
+      final ExpressionExecutor executor = new ExpressionExecutor(INDEX);
+      assertArrayEquals(query,
+          executor.search(expression),
+          executor.search(new QueryPlanner(INDEX).plan(expression).getExpression()));
+    }
+  }
+
+  @Test
+  public void does_not_prune_negation_with_zero_estimate() {
+    final InvertedIndex index = new InvertedIndex.Builder() {{
+      addDocument("x", "y");
+      addDocument("x", "y");
+      addDocument("z");
+      addDocument("w");
+    }}.build();
+    // NOT(x, y) is estimated to match 4 - min(2 + 2, 4) = 0 documents
+    final Expression expression = Expression.of(Operator.OR, List.of(
+        Expression.of(new Term(0, "q")),
+        Expression.of(Operator.NOT, List.of(
+            Expression.of(List.of(new Term(1, "x"), new Term(2, "y")))))));
+    final Plan plan = new QueryPlanner(index).plan(expression);
+    assertThat(plan.isEmpty(), equalTo(false));
+    assertArrayEquals(new int[] {2, 3}, new ExpressionExecutor(index).search(plan.getExpression()));
+  }
+
+  @Test
+  public void noop_is_not_known_to_be_empty() {
+    assertThat(new QueryPlanner(INDEX).plan(Expression.noop()).isEmpty(), equalTo(false));
+  }
+
+  @Test
+  public void planned_random_expressions_match_same_documents() {
+    final Random random = new Random(42);
+    final String[] words = {"a", "b", "c", "d", "missing"};
+    final InvertedIndex.Builder builder = new InvertedIndex.Builder();
+    for (int doc = 0; doc < 8; doc++) {
+      final java.util.List<String> present = new java.util.ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        if (random.nextInt(2) == 0) {
+          present.add(words[i]);
+        }
+      }
+      builder.addDocument(present.toArray(new String[0]));
+    }
+    final InvertedIndex index = builder.build();
+    final ExpressionExecutor executor = new ExpressionExecutor(index);
+
+    for (int n = 0; n < 2000; n++) {
+      final Expression expression = randomExpression(random, words, 3);
+      assertThat(expression.toString(),
+          Arrays.toString(executor.search(
+              new QueryPlanner(index).plan(expression).getExpression())),
+          equalTo(Arrays.toString(executor.search(expression))));
+    }
+  }
+
+  private static Expression randomExpression(Random random, String[] words, int depth) {
+    final int kind = random.nextInt(depth > 0 ? 6 : 1);
+    if (kind == 0) {
+      List<Term> terms = List.empty();
+      for (int i = random.nextInt(3); i >= 0; i--) {
+        final int word = random.nextInt(words.length);
+        terms = terms.append(new Term(word, words[word]));
+      }
+      return Expression.of(terms);
+    } else if (kind == 5) {
+      return Expression.noop();
+    }
+    final Operator operator =
+        new Operator[] {Operator.AND, Operator.OR, Operator.NOT, Operator.BOOST}[kind - 1];
+    List<Expression> operands = List.empty();
+    for (int i = random.nextInt(3); i >= 0; i--) {
+      operands = operands.append(randomExpression(random, words, depth - 1));
+    }
+    return Expression.of(operator, operands);
+  }
+}
@@ -0,0 +1,110 @@
+package com.github.audunhalland.parceq.exec;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import com.github.audunhalland.parceq.Expression;
+import com.github.audunhalland.parceq.ParceQ;
+import com.github.audunhalland.parceq.Term;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final String[] WORDS = {"apple", "b", "banana", "æble", "Zebra", "z", "ørret", "ab"};
+
+  private InvertedIndex randomIndex() {
+    final Random random = new Random(5);
+    final InvertedIndex.Builder builder = new InvertedIndex.Builder();
+    for (int doc = 0; doc < 1000; doc++) {
+      final java.util.List<String> words = new java.util.ArrayList<>();
+      for (String word : WORDS) {
+        if (random.nextInt(3) == 0) {
+          words.add(word);
+        }
+      }
+      builder.addDocument(words.toArray(new String[0]));
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void looks_up_every_term_written() throws IOException {
+    final InvertedIndex index = randomIndex();
+    final Path path = folder.newFile().toPath();
+    SegmentWriter.write(index, path);
+    try (Segment segment = Segment.open(path)) {
+      assertThat(segment.maxDoc(), equalTo(index.maxDoc()));
+      assertThat(segment.termCount(), equalTo(WORDS.length));
+      for (String word : WORDS) {
+        final Term term = new Term(0, word);
+        assertThat(word, segment.docFreq(term), equalTo(index.docFreq(term)));
+      }
+      assertThat(segment.docFreq(new Term(0, "missing")), equalTo(0));
+      for (String word : WORDS) {
+        final Term term = ParceQ.parse(ByteBuffer.wrap(word.getBytes(StandardCharsets.UTF_8)))
+            .get().getExpression().getValue().getLeft().getOperands().head()
+            .getValue().get().head();
+        assertThat(word, segment.docFreq(term), equalTo(index.docFreq(new Term(0, word))));
+      }
+      assertThat(segment.postings(new Term(0, "a")).nextDoc(), equalTo(DocIdIterator.NO_MORE_DOCS));
+    }
+  }
+
+  @Test
+  public void executes_like_in_memory_index() throws IOException {
+    final InvertedIndex index = randomIndex();
+    final Path path = folder.newFile().toPath();
+    SegmentWriter.write(index, path);
+    try (Segment segment = Segment.open(path)) {
+      for (String query : new String[] {"apple æble", "banana AND ørret", "+z -Zebra ab", "-b"}) {
+        final Expression expression = ParceQ.parse(query).get().getExpression();
+        assertArrayEquals(query,
+            new ExpressionExecutor(index).search(expression),
+            new ExpressionExecutor(segment).search(expression));
+      }
+    }
+  }
+
+  @Test
+  public void looks_up_terms_by_field() throws IOException {
+    final InvertedIndex.Builder builder = new InvertedIndex.Builder();
+    builder.addDocument("foo");
+    builder.addDocument();
+    builder.addField("title", "foo");
+    builder.addDocument();
+    builder.addField("body", "foo").addField("titlé", "foo");
+    final Path path = folder.newFile().toPath();
+    SegmentWriter.write(builder.build(), path);
+    try (Segment segment = Segment.open(path)) {
+      for (String query : new String[] {"foo", "title:foo", "body:foo", "titlé:foo", "bar:foo"}) {
+        final ParceQ parsed = ParceQ.parse(ByteBuffer.wrap(query.getBytes(StandardCharsets.UTF_8)))
+            .get();
+        assertArrayEquals(query,
+            new ExpressionExecutor(builder.build()).search(parsed.getExpression()),
+            new ExpressionExecutor(segment).search(parsed.getExpression()));
+      }
+      assertArrayEquals(new int[] {1},
+          new ExpressionExecutor(segment).search(ParceQ.parse("title:foo").get().getExpression()));
+    }
+  }
+
+  @Test
+  public void writes_empty_index() throws IOException {
+    final Path path = folder.newFile().toPath();
+    SegmentWriter.write(new InvertedIndex.Builder().build(), path);
+    try (Segment segment = Segment.open(path)) {
+      assertThat(segment.termCount(), equalTo(0));
+      assertThat(segment.docFreq(new Term(0, "a")), equalTo(0));
+    }
+  }
+}